@@ -0,0 +1,147 @@
+package sim.nodes;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} on the JDK Vector API, at the preferred vector width of the
+ * platform. Loaded by {@link Kernels#forName}; compile and run with
+ * --add-modules jdk.incubator.vector, e.g.
+ *
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp bin:lib/* -d bin src-vector/sim/nodes/VectorKernels.java
+ * </pre>
+ *
+ * Reductions keep one partial sum per lane and add the lanes up at the end.
+ * dotGather stays scalar: gathered loads are no faster than scalar ones here,
+ * and C2 of JDK 17 has crashed on them with 512 bit vectors.
+ * The transposed triangular solve runs column by column, so that it works on
+ * contiguous rows of the factor.
+ */
+public class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    public VectorKernels() {
+    }
+
+    @Override
+    public double dot(double s, double[] x, int xo, double[] y, int yo, int n) {
+        return s + sum(x, xo, y, yo, n);
+    }
+
+    @Override
+    public double residual(double s, double[] x, int xo, double[] y, int yo, int n) {
+        return s - sum(x, xo, y, yo, n);
+    }
+
+    private static double sum(double[] x, int xo, double[] y, int yo, int n) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xo + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yo + i);
+            acc = vx.fma(vy, acc);
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            s += x[xo + i] * y[yo + i];
+        }
+        return s;
+    }
+
+    @Override
+    public void axpy(double a, double[] x, int xo, double[] y, int yo, int n) {
+        // multiply and add rounded separately, like the scalar loop
+        DoubleVector va = DoubleVector.broadcast(SPECIES, a);
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xo + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yo + i);
+            vy.add(va.mul(vx)).intoArray(y, yo + i);
+        }
+        for (; i < n; i++) {
+            y[yo + i] += a * x[xo + i];
+        }
+    }
+
+    @Override
+    public void solveLowerTransposed(double[] l, int ld, int k, double[] y) {
+        // y(0:p) -= y[p] * L(p, 0:p) once y[p] is final
+        for (int p = k - 1; p >= 0; p--) {
+            int lp = p * ld;
+            y[p] /= l[lp + p];
+            axpy(-y[p], l, lp, y, 0, p);
+        }
+    }
+
+    @Override
+    public boolean bounded(double[] a, double[] b, int n, double e) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, a, i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, i)).abs();
+            if (d.compare(VectorOperators.GT, e).anyTrue()) {
+                return false;
+            }
+        }
+        for (; i < n; i++) {
+            if (Math.abs(a[i] - b[i]) > e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int countUnbounded(double[] a, double[] b, int n, double e) {
+        int count = 0;
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, a, i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, i)).abs();
+            VectorMask<Double> over = d.compare(VectorOperators.GT, e);
+            count += over.trueCount();
+        }
+        for (; i < n; i++) {
+            if (Math.abs(a[i] - b[i]) > e) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int unbounded(double[] a, double[] b, int n, double e, int[] index) {
+        int count = 0;
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, a, i)
+                    .sub(DoubleVector.fromArray(SPECIES, b, i)).abs();
+            long over = d.compare(VectorOperators.GT, e).toLong();
+            while (over != 0) {
+                index[count++] = i + Long.numberOfTrailingZeros(over);
+                over &= over - 1;
+            }
+        }
+        for (; i < n; i++) {
+            if (Math.abs(a[i] - b[i]) > e) {
+                index[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "vector kernels " + SPECIES;
+    }
+}
@@ -3,9 +3,9 @@
  * and open the template in the editor.
  */
 package sim;
-import sim.nodes.MVNModel;
 import sim.nodes.Network;
 import sim.nodes.NetworkConfiguration;
+import sim.nodes.SimulationContext;
 
 public class Main {
 
@@ -19,9 +19,10 @@ public class Main {
     	Network net = NetworkConfiguration.createNetwork(configFile);
     	net.startSimulation();
 
-    	System.out.println(MVNModel.stat_sentCount);
-    	System.out.println(MVNModel.stat_tx);
-    	System.out.println(((double)MVNModel.stat_sentCount)/(net.nodeCount * net.timeSteps));
+    	SimulationContext context = net.getContext();
+    	System.out.println(context.getSentCount());
+    	System.out.println(context.getTxCount());
+    	System.out.println(context.getSentRate());
         //conf.startSimulation(conf.clusters[0], 1, "sim.nodes.LinearModel");
     	System.out.println(new java.io.File(configFile).getAbsolutePath());
     }
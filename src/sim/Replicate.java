@@ -0,0 +1,197 @@
+package sim;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import sim.nodes.Cluster;
+import sim.nodes.Network;
+import sim.nodes.NetworkConfiguration;
+import sim.nodes.SimulationContext;
+
+/**
+ * Runs independent replicates of a configuration and reports the mean of the
+ * transmission statistics with 95% confidence intervals.
+ * <p>
+ * Replicate r runs with replicate set to r, see {@link Network#replicate}:
+ * every node and cluster head of it draws its failures from a stream of its
+ * own, keyed by (replicate, tier, cluster, node) and the seed of the
+ * configuration. The replicates are thus independent of each other, and each
+ * gives the same result whatever the threads and the order they run in.
+ * <p>
+ * If the configuration, or a separate grid file, has a sweep element, see
+ * {@link Sweep}, every grid point is replicated, e.g. to put error bars on a
+ * curve over the failure rates. The results are tab-separated, one line per
+ * grid point: the swept values, the number of replicates, and the mean and
+ * the half width of the confidence interval of the three numbers {@link Main}
+ * prints and of the transmissions of the nodes.
+ */
+public class Replicate {
+
+    private static final String[] STATISTICS = { "sent", "tx", "rate", "nodeSends" };
+
+    /** 97.5% quantiles of Student's t with 1 to 30 degrees of freedom */
+    private static final double[] T975 = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365,
+            2.306, 2.262, 2.228, 2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093,
+            2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+    private final Sweep sweep;
+    private final int replicates;
+    private final NetworkConfiguration.Shared shared = new NetworkConfiguration.Shared();
+
+    /**
+     * @param sweep
+     *            the grid points to replicate
+     */
+    public Replicate(Sweep sweep, int replicates) {
+        if (replicates < 1) {
+            throw new IllegalArgumentException("replicates should be positive");
+        }
+        this.sweep = sweep;
+        this.replicates = replicates;
+    }
+
+    /**
+     * Runs all replicates of all grid points and writes a header and one line
+     * per point.
+     */
+    public void run(int threads, PrintStream out) throws InterruptedException,
+            ExecutionException {
+        StringBuilder header = new StringBuilder();
+        for (String key : sweep.getKeys()) {
+            header.append(key).append('\t');
+        }
+        header.append("n");
+        for (String s : STATISTICS) {
+            header.append('\t').append(s).append('\t').append(s).append("CI");
+        }
+        out.println(header);
+
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        try {
+            // the first network fills the shared readings and params
+            Network first = NetworkConfiguration.createNetwork(variant(0, 0), true, shared);
+            List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+            results.add(pool.submit(() -> run(first)));
+            for (int k = 1; k < sweep.size() * replicates; k++) {
+                final int p = k / replicates;
+                final int r = k % replicates;
+                results.add(pool.submit(
+                        () -> run(NetworkConfiguration.createNetwork(variant(p, r), true, shared))));
+            }
+            for (int p = 0; p < sweep.size(); p++) {
+                double[][] x = new double[replicates][];
+                for (int r = 0; r < replicates; r++) {
+                    x[r] = results.get(p * replicates + r).get();
+                }
+                StringBuilder line = new StringBuilder();
+                for (String v : sweep.point(p)) {
+                    line.append(v).append('\t');
+                }
+                line.append(replicates);
+                for (int s = 0; s < STATISTICS.length; s++) {
+                    double[] ci = interval(x, s);
+                    line.append('\t').append(ci[0]).append('\t').append(ci[1]);
+                }
+                out.println(line);
+                out.flush();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private HierarchicalConfiguration variant(int p, int r) {
+        HierarchicalConfiguration v = sweep.variant(p);
+        v.setProperty("replicate", r);
+        return v;
+    }
+
+    /**
+     * @return the statistics of a run, in the order of STATISTICS
+     */
+    private static double[] run(Network net) {
+        net.startSimulation();
+        SimulationContext context = net.getContext();
+        int nodeSends = 0;
+        for (Cluster cluster : net.baseStation.clusters) {
+            nodeSends += cluster.getNodeSendCount();
+        }
+        return new double[] { context.getSentCount(), context.getTxCount(),
+                context.getSentRate(), nodeSends };
+    }
+
+    /**
+     * @return mean of statistic s over the replicates, and the half width of
+     *         its 95% confidence interval, 0 for a single replicate
+     */
+    private static double[] interval(double[][] x, int s) {
+        int n = x.length;
+        double mean = 0;
+        for (double[] y : x) {
+            mean += y[s];
+        }
+        mean /= n;
+        if (n == 1) {
+            return new double[] { mean, 0 };
+        }
+        double ss = 0;
+        for (double[] y : x) {
+            ss += (y[s] - mean) * (y[s] - mean);
+        }
+        double sd = Math.sqrt(ss / (n - 1));
+        return new double[] { mean, quantile(n - 1) * sd / Math.sqrt(n) };
+    }
+
+    /**
+     * @return 97.5% quantile of Student's t, from the table and beyond it
+     *         from the first terms of its expansion around the normal one
+     */
+    static double quantile(int df) {
+        if (df <= T975.length) {
+            return T975[df - 1];
+        }
+        double z = 1.959964;
+        return z + (z * z * z + z) / (4 * df);
+    }
+
+    /**
+     * @param args
+     *            config replicates [results [threads [grid]]]; the results go
+     *            to replicates.tsv and the threads default to the number of
+     *            cores
+     */
+    public static void main(String[] args) throws FileNotFoundException, InterruptedException,
+            ExecutionException {
+        if (args.length < 2) {
+            System.err.println("Usage: Replicate config replicates [results [threads [grid]]]");
+            return;
+        }
+        int replicates = Integer.parseInt(args[1]);
+        String resultFile = args.length > 2 ? args[2] : "replicates.tsv";
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+        Sweep.quiet();
+        HierarchicalConfiguration config = NetworkConfiguration.read(args[0]);
+        HierarchicalConfiguration grid = args.length > 4 ? NetworkConfiguration.read(args[4])
+                : config;
+        // without a sweep element there is a single point
+        HierarchicalConfiguration points = grid.configurationsAt("sweep").isEmpty()
+                ? new HierarchicalConfiguration() : grid.configurationAt("sweep");
+        Replicate replicate = new Replicate(new Sweep(config, points), replicates);
+
+        long start = System.currentTimeMillis();
+        PrintStream out = new PrintStream(resultFile);
+        replicate.run(threads, out);
+        out.close();
+        System.out.println(String.format("%d points of %d replicates in %d ms on %d threads",
+                replicate.sweep.size(), replicates, System.currentTimeMillis() - start, threads));
+    }
+}
@@ -0,0 +1,217 @@
+package sim;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import sim.nodes.Cluster;
+import sim.nodes.Network;
+import sim.nodes.NetworkConfiguration;
+import sim.nodes.SimulationContext;
+
+/**
+ * Runs a configuration over a grid of parameter values and writes one line
+ * of results per grid point.
+ * <p>
+ * The grid is the sweep element of the configuration, or of a separate grid
+ * file, with one child per swept key and its values separated by commas:
+ *
+ * <pre>
+ * &lt;sweep&gt;
+ *   &lt;epsilon1&gt;0.25, 0.5, 1&lt;/epsilon1&gt;
+ *   &lt;failureRate1&gt;0, 0.1, 0.3&lt;/failureRate1&gt;
+ *   &lt;nodeRedundancy&gt;1, 2&lt;/nodeRedundancy&gt;
+ * &lt;/sweep&gt;
+ * </pre>
+ *
+ * Any top level key can be swept but those the readings and the cluster
+ * params depend on: they are read, parsed or fitted once and shared by all
+ * points, see {@link NetworkConfiguration.Shared}. The points run
+ * concurrently on a work-stealing pool; the failure generators are seeded,
+ * so the results do not depend on the schedule. The traces of concurrent
+ * runs would interleave, so the loggers are turned down to errors.
+ * <p>
+ * The results are tab-separated, in grid order with the last key varying
+ * fastest: the swept values, the three numbers {@link Main} prints, the
+ * transmissions of the nodes and the time of the run in ms.
+ */
+public class Sweep {
+
+    /** keys the shared readings and params depend on, or global to the JVM */
+    private static final List<String> FIXED = Arrays.asList("dataFile", "timeSteps",
+            "nodeCount", "precision", "fitParams", "order", "clusters", "models", "sweep");
+
+    private final HierarchicalConfiguration config;
+    private final String[] keys;
+    private final String[][] values;
+    private final NetworkConfiguration.Shared shared = new NetworkConfiguration.Shared();
+
+    /**
+     * @param grid
+     *            the sweep element
+     */
+    public Sweep(HierarchicalConfiguration config, HierarchicalConfiguration grid) {
+        this.config = config;
+        List<String> k = new ArrayList<String>();
+        List<String[]> v = new ArrayList<String[]>();
+        for (Iterator<?> it = grid.getKeys(); it.hasNext();) {
+            String key = (String) it.next();
+            if (FIXED.contains(key) || key.contains(".")) {
+                throw new IllegalArgumentException("cannot sweep " + key);
+            }
+            String[] x = grid.getStringArray(key);
+            for (int i = 0; i < x.length; i++) {
+                x[i] = x[i].trim();
+            }
+            k.add(key);
+            v.add(x);
+        }
+        keys = k.toArray(new String[k.size()]);
+        values = v.toArray(new String[v.size()][]);
+    }
+
+    /**
+     * @return the swept keys
+     */
+    public String[] getKeys() {
+        return keys.clone();
+    }
+
+    /**
+     * @return number of grid points
+     */
+    public int size() {
+        int n = 1;
+        for (String[] x : values) {
+            n *= x.length;
+        }
+        return n;
+    }
+
+    /**
+     * @return the values of grid point p, one per key
+     */
+    public String[] point(int p) {
+        String[] x = new String[keys.length];
+        for (int k = keys.length - 1; k >= 0; k--) {
+            x[k] = values[k][p % values[k].length];
+            p /= values[k].length;
+        }
+        return x;
+    }
+
+    /**
+     * @return the configuration of grid point p
+     */
+    public HierarchicalConfiguration variant(int p) {
+        HierarchicalConfiguration v = (HierarchicalConfiguration) config.clone();
+        String[] x = point(p);
+        for (int k = 0; k < keys.length; k++) {
+            v.setProperty(keys[k], x[k]);
+        }
+        return v;
+    }
+
+    /**
+     * Runs all grid points and writes a header and one line per point.
+     */
+    public void run(int threads, PrintStream out) throws InterruptedException,
+            ExecutionException {
+        StringBuilder header = new StringBuilder();
+        for (String key : keys) {
+            header.append(key).append('\t');
+        }
+        out.println(header.append("sent\ttx\trate\tnodeSends\tms"));
+
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        try {
+            // the first network fills the shared readings and params
+            Network first = NetworkConfiguration.createNetwork(variant(0), true, shared);
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            results.add(pool.submit(() -> run(first, 0)));
+            for (int p = 1; p < size(); p++) {
+                final int q = p;
+                results.add(pool.submit(
+                        () -> run(NetworkConfiguration.createNetwork(variant(q), true, shared), q)));
+            }
+            for (Future<String> result : results) {
+                out.println(result.get());
+                out.flush();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String run(Network net, int p) {
+        long start = System.nanoTime();
+        net.startSimulation();
+        long ms = (System.nanoTime() - start) / 1000000;
+
+        SimulationContext context = net.getContext();
+        int nodeSends = 0;
+        for (Cluster cluster : net.baseStation.clusters) {
+            nodeSends += cluster.getNodeSendCount();
+        }
+        StringBuilder line = new StringBuilder();
+        for (String x : point(p)) {
+            line.append(x).append('\t');
+        }
+        return line.append(context.getSentCount()).append('\t')
+                .append(context.getTxCount()).append('\t')
+                .append(context.getSentRate()).append('\t')
+                .append(nodeSends).append('\t')
+                .append(ms).toString();
+    }
+
+    /**
+     * Turns all loggers down to errors.
+     */
+    static void quiet() {
+        LogManager.getRootLogger().setLevel(Level.ERROR);
+        for (Enumeration<?> e = LogManager.getCurrentLoggers(); e.hasMoreElements();) {
+            ((Logger) e.nextElement()).setLevel(Level.ERROR);
+        }
+    }
+
+    /**
+     * @param args
+     *            config [results [threads [grid]]]; the results go to
+     *            sweep.tsv and the threads default to the number of cores
+     */
+    public static void main(String[] args) throws FileNotFoundException, InterruptedException,
+            ExecutionException {
+        if (args.length < 1) {
+            System.err.println("Usage: Sweep config [results [threads [grid]]]");
+            return;
+        }
+        String resultFile = args.length > 1 ? args[1] : "sweep.tsv";
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        quiet();
+        HierarchicalConfiguration config = NetworkConfiguration.read(args[0]);
+        HierarchicalConfiguration grid = args.length > 3 ? NetworkConfiguration.read(args[3])
+                : config;
+        Sweep sweep = new Sweep(config, grid.configurationAt("sweep"));
+
+        long start = System.currentTimeMillis();
+        PrintStream out = new PrintStream(resultFile);
+        sweep.run(threads, out);
+        out.close();
+        System.out.println(String.format("%d points in %d ms on %d threads", sweep.size(),
+                System.currentTimeMillis() - start, threads));
+    }
+}
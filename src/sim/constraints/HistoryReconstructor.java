@@ -11,11 +11,15 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import sim.constraints.Interval.Type;
+import sim.nodes.AR1Model;
 import sim.nodes.Cluster;
+import sim.nodes.LowRankModel;
 import sim.nodes.MVNModel;
+import sim.nodes.Model;
 import sim.nodes.Network;
 import sim.nodes.NetworkConfiguration;
 import sim.nodes.TransmissionRecord;
+import sim.nodes.VARModel;
 
 public class HistoryReconstructor {
 	private String logFile;
@@ -131,7 +135,21 @@ public class HistoryReconstructor {
 	public void generateConstraints() {
         Interval unknownInterval = new Interval(0,0,Type.UNKNOWN,-1);
 		for (Cluster cluster : net.baseStation.clusters) {
-			MVNModel model = (MVNModel)(cluster.getModel());
+			Model m = cluster.getModel();
+			// constraints are derived in covariance form whatever the cluster ran
+			MVNModel model;
+			if (m instanceof LowRankModel) {
+				model = ((LowRankModel) m).covarianceForm();
+			} else if (m instanceof VARModel) {
+				model = ((VARModel) m).covarianceForm();
+			} else if (m instanceof AR1Model) {
+				model = ((AR1Model) m).covarianceForm();
+			} else if (m instanceof MVNModel) {
+				model = (MVNModel) m;
+			} else {
+				throw new UnsupportedOperationException("no covariance form for "
+						+ m.getClass().getSimpleName());
+			}
 			model.epsilon1 = net.epsilon1;
 			// first epoch is always equality constraint
 			outputFirstEpoch(cluster.transmissionList.get(0));
@@ -0,0 +1,202 @@
+package sim.nodes;
+
+import Jama.LUDecomposition;
+import Jama.Matrix;
+
+/**
+ * Independent AR(1) process for each node: the cheapest cluster model.
+ * <p>
+ * Node i follows x(t) = mu + rho (x(t-1) - mu) + w with the mean, the lag one
+ * autocorrelation and the variance of the node under the cluster model, see
+ * {@link #marginals}; its neighbours are marginalized out rather than
+ * dropped. Without cross covariances a transmission only informs the
+ * node itself, so the prediction of a node is mu + rho^k (x - mu), k epochs
+ * after its last sent value x, and the subset to send is exactly the set of
+ * nodes whose prediction is off by more than epsilon. An epoch costs O(m).
+ * <p>
+ * The model is {@link MVNModel} with a diagonal a and sigma, see
+ * {@link #covarianceForm()}.
+ */
+public class AR1Model implements Model {
+
+    /** number of nodes */
+    public int m;
+
+    public Matrix c;
+    public Matrix a;
+    public Matrix sigma;
+    double epsilon;
+
+    /** mean, lag one autocorrelation and innovation variance of each node */
+    private final double[] mu, rho, innovation;
+    /** prediction of each node for the current epoch */
+    private double[] prediction;
+    private int[] violated;
+
+    private final Kernels kernels;
+    private final ThreadLocal<MVNModel.MatrixPredictor> matrixPredictors;
+
+    /**
+     * @param a
+     *            [a_1 ... a_p], m x pm
+     */
+    public AR1Model(double epsilon, Matrix c, Matrix a, Matrix sigma) {
+        this(epsilon, c, a, sigma, Kernels.SCALAR);
+    }
+
+    public AR1Model(double epsilon, Matrix c, Matrix a, Matrix sigma, Kernels kernels) {
+        this.c = c;
+        this.a = a;
+        this.sigma = sigma;
+        this.epsilon = epsilon;
+        m = c.getRowDimension();
+        double[][] x = marginals(c, a, sigma);
+        mu = x[0];
+        rho = x[1];
+        innovation = x[2];
+        this.kernels = kernels;
+        matrixPredictors = ThreadLocal.withInitial(() -> new MVNModel.MatrixPredictor(kernels));
+    }
+
+    /**
+     * Marginal AR(1) approximation of each node under the model
+     * x(t) = c + a_1 x(t-1) + ... + a_p x(t-p) + w, w ~ N(0, sigma): its
+     * stationary mean mu, lag one autocorrelation rho and the variance of w in
+     * x(t) = mu + rho (x(t-1) - mu) + w that keeps its stationary variance.
+     * The diagonal of a alone understates the persistence of a node whenever
+     * its neighbours are correlated with it.
+     * <p>
+     * If the model has no stationary distribution the node's own terms are
+     * used: a_ii, c_i / (1 - a_ii) and sigma_ii.
+     *
+     * @return {mean, autocorrelation, innovation variance}
+     */
+    public static double[][] marginals(Matrix c, Matrix a, Matrix sigma) {
+        int m = c.getRowDimension();
+        int n = a.getColumnDimension();
+        // companion form x(t) = f x(t-1) + w, w ~ N(0, q), on stacked lags
+        Matrix f = new Matrix(n, n);
+        f.setMatrix(0, m - 1, 0, n - 1, a);
+        for (int i = m; i < n; i++) {
+            f.set(i, i - m, 1);
+        }
+        Matrix q = new Matrix(n, n);
+        q.setMatrix(0, m - 1, 0, m - 1, sigma);
+
+        // mean (I - a_1 - ... - a_p)^-1 c
+        Matrix s = Matrix.identity(m, m);
+        for (int l = 0; l < n; l += m) {
+            s.minusEquals(a.getMatrix(0, m - 1, l, l + m - 1));
+        }
+        LUDecomposition lu = s.lu();
+        Matrix mean = lu.isNonsingular() ? lu.solve(c) : null;
+
+        // stationary covariance g = f g f' + q by doubling: after k steps g
+        // sums 2^k terms of the series
+        Matrix g = q.copy();
+        Matrix fk = f.copy();
+        for (int k = 0; k < 64; k++) {
+            Matrix d = fk.times(g).times(fk.transpose());
+            g.plusEquals(d);
+            fk = fk.times(fk);
+            if (d.normInf() <= 1e-12 * g.normInf()) {
+                break;
+            }
+        }
+        Matrix g1 = f.times(g);
+        boolean stationary = mean != null && fk.normInf() < 1e-6;
+
+        double[][] x = new double[3][m];
+        for (int i = 0; i < m; i++) {
+            if (stationary) {
+                x[0][i] = mean.get(i, 0);
+                x[1][i] = g1.get(i, i) / g.get(i, i);
+                x[2][i] = g.get(i, i) * (1 - x[1][i] * x[1][i]);
+            } else {
+                double ai = a.get(i, i);
+                x[0][i] = ai != 1 ? c.get(i, 0) / (1 - ai) : 0;
+                x[1][i] = ai;
+                x[2][i] = sigma.get(i, i);
+            }
+        }
+        return x;
+    }
+
+    //@Override
+    public int[] send(double[] currentVal) {
+        // first time to send: always send out all values
+        if (prediction == null) {
+            prediction = currentVal.clone();
+            violated = new int[m];
+            int[] all = new int[m];
+            Helper.reset(all, 0);
+            return all;
+        }
+
+        int count = 0;
+        for (int i = 0; i < m; i++) {
+            prediction[i] = mu[i] + rho[i] * (prediction[i] - mu[i]);
+            if (Math.abs(prediction[i] - currentVal[i]) > epsilon) {
+                violated[count++] = i;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        int[] newSentIndex = new int[count];
+        for (int k = 0; k < count; k++) {
+            int i = violated[k];
+            newSentIndex[k] = i;
+            prediction[i] = currentVal[i];
+        }
+        return newSentIndex;
+    }
+
+    @Override
+    public Matrix predict(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
+            Matrix sentValues) {
+        return matrixPredictors.get().predict(mean, cov, 0, sentIndex, predictIndex, sentValues,
+                false);
+    }
+
+    @Override
+    public void resetPrediction() {
+        matrixPredictors.get().cov = null;
+    }
+
+    @Override
+    public Kernels getKernels() {
+        return kernels;
+    }
+
+    /**
+     * @return the equivalent {@link MVNModel}, diagonal with the marginal
+     *         parameters, e.g. for the history reconstruction
+     */
+    public MVNModel covarianceForm() {
+        Matrix mc = new Matrix(m, 1);
+        Matrix ma = new Matrix(m, m);
+        Matrix msigma = new Matrix(m, m);
+        for (int i = 0; i < m; i++) {
+            mc.set(i, 0, mu[i] * (1 - rho[i]));
+            ma.set(i, i, rho[i]);
+            msigma.set(i, i, innovation[i]);
+        }
+        return new MVNModel(epsilon, mc, ma, msigma, kernels);
+    }
+
+    /**
+     * @return null, the subset follows from the bound check
+     */
+    public SubsetSelector getSubsetSelector() {
+        return null;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+}
@@ -0,0 +1,232 @@
+package sim.nodes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the nodes and the cluster heads of a network as actors, each on a
+ * thread of its own that takes messages from a bounded mailbox, instead of
+ * the base station pulling from the heads and the heads from the nodes.
+ * <p>
+ * An epoch is a tick: the base station ticks every head, a head ticks its
+ * nodes, every node answers its head with its message, or with none, and a
+ * head that has heard from all its nodes answers the base station with its
+ * own. The base station waits for all heads and receives their messages in
+ * cluster order. The actors keep their trace lines until then, so a run
+ * gives the traces of the synchronous simulation.
+ * <p>
+ * With a delivery delay of d epochs, see {@link Network#deliveryDelay}, a
+ * head receives the messages its nodes sent d ticks earlier: asynchronous
+ * delivery, still deterministic.
+ * <p>
+ * The threads are virtual threads where the JVM has them (JDK 21 on), and
+ * platform threads otherwise, which limits the size of the network to the
+ * number of threads the platform allows.
+ */
+public class Actors {
+
+    private static final Object TICK = new Object();
+
+    /** message of a node to its head */
+    private static final class Delivery {
+        final int node;
+        final NodeMessage msg;
+
+        Delivery(int node, NodeMessage msg) {
+            this.node = node;
+            this.msg = msg;
+        }
+    }
+
+    /** message of a head to the base station, or the failure of an actor */
+    private static final class Report {
+        final int cluster;
+        final ClusterMessage msg;
+        final Throwable error;
+
+        Report(int cluster, ClusterMessage msg, Throwable error) {
+            this.cluster = cluster;
+            this.msg = msg;
+            this.error = error;
+        }
+    }
+
+    private final BlockingQueue<Report> baseStation;
+    private final HeadActor[] heads;
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    public Actors(Network net, Cluster[] clusters) {
+        ThreadFactory factory = threadFactory();
+        baseStation = new ArrayBlockingQueue<Report>(Math.max(net.mailboxSize, clusters.length));
+        heads = new HeadActor[clusters.length];
+        for (int i = 0; i < clusters.length; i++) {
+            heads[i] = new HeadActor(i, clusters[i], net.mailboxSize, net.deliveryDelay);
+            start(factory, heads[i]);
+            for (NodeActor node : heads[i].nodes) {
+                start(factory, node);
+            }
+        }
+    }
+
+    /**
+     * @return virtual threads if the JVM has them, daemon platform threads
+     *         otherwise
+     */
+    static ThreadFactory threadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory")
+                    .invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            // JDK 17, or virtual threads still in preview and not enabled
+            return r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    private void start(ThreadFactory factory, Actor actor) {
+        Thread t = factory.newThread(actor);
+        threads.add(t);
+        t.start();
+    }
+
+    /**
+     * Runs one epoch.
+     *
+     * @return the message of each cluster, in cluster order
+     */
+    public ClusterMessage[] tick() {
+        for (HeadActor head : heads) {
+            head.post(TICK);
+        }
+        ClusterMessage[] msgs = new ClusterMessage[heads.length];
+        try {
+            for (int k = 0; k < heads.length; k++) {
+                Report report = baseStation.take();
+                if (report.error != null) {
+                    stop();
+                    throw new IllegalStateException("actor failed", report.error);
+                }
+                msgs[report.cluster] = report.msg;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return msgs;
+    }
+
+    /**
+     * Ends all actors.
+     */
+    public void stop() {
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+    }
+
+    private abstract class Actor implements Runnable {
+        final BlockingQueue<Object> mailbox;
+
+        Actor(int capacity) {
+            mailbox = new ArrayBlockingQueue<Object>(capacity);
+        }
+
+        void post(Object msg) {
+            try {
+                mailbox.put(msg);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void run() {
+            try {
+                for (;;) {
+                    handle(mailbox.take());
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (Throwable e) {
+                baseStation.offer(new Report(-1, null, e));
+            }
+        }
+
+        abstract void handle(Object msg) throws InterruptedException;
+    }
+
+    private final class NodeActor extends Actor {
+        final Node node;
+        final HeadActor head;
+
+        NodeActor(Node node, HeadActor head, int capacity) {
+            super(capacity);
+            this.node = node;
+            this.head = head;
+            node.setBufferedTrace(true);
+        }
+
+        void handle(Object msg) {
+            NodeMessage sent = node.send();
+            if (sent != null && head.delay > 0) {
+                // the node goes on with its history while the message is in
+                // flight
+                sent.history = new ArrayList<NodeMessage>(sent.history);
+            }
+            head.post(new Delivery(node.getId(), sent));
+        }
+    }
+
+    private final class HeadActor extends Actor {
+        final int index;
+        final Cluster cluster;
+        final NodeActor[] nodes;
+        final int delay;
+        // messages of the last ticks still in flight, oldest first
+        final ArrayDeque<NodeMessage[]> inFlight = new ArrayDeque<NodeMessage[]>();
+        NodeMessage[] msgs;
+        int awaiting;
+
+        HeadActor(int index, Cluster cluster, int capacity, int delay) {
+            super(Math.max(capacity, cluster.nodes.length));
+            this.index = index;
+            this.cluster = cluster;
+            this.delay = delay;
+            nodes = new NodeActor[cluster.nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new NodeActor(cluster.nodes[i], this, capacity);
+            }
+            cluster.setBufferedTrace(true);
+        }
+
+        void handle(Object msg) throws InterruptedException {
+            if (msg == TICK) {
+                msgs = new NodeMessage[nodes.length];
+                awaiting = nodes.length;
+                for (NodeActor node : nodes) {
+                    node.post(TICK);
+                }
+                return;
+            }
+            Delivery delivery = (Delivery) msg;
+            msgs[delivery.node] = delivery.msg;
+            if (--awaiting > 0) {
+                return;
+            }
+            for (NodeActor node : nodes) {
+                node.node.flushTrace();
+            }
+            inFlight.add(msgs);
+            NodeMessage[] arrived = inFlight.size() > delay ? inFlight.poll()
+                    : new NodeMessage[nodes.length];
+            baseStation.put(new Report(index, cluster.send(arrived), null));
+        }
+    }
+}
@@ -3,6 +3,10 @@ package sim.nodes;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
@@ -27,9 +31,14 @@ public class BaseStation {
 	
 	private Network net;
 	private Decoder decoder;
+	// sends the clusters of an epoch concurrently, null to send them in order
+	private ForkJoinPool epochPool;
+	private List<Callable<ClusterMessage>> sends;
+	// runs the heads and nodes as actors, null to call them
+	private Actors actors;
 
 	public Cluster createCluster(int id, int nodeCount) {
-		clusters[id] = new Cluster(nodeCount, net.epsilon1, net.epsilon2);
+		clusters[id] = new Cluster(net.getContext(), id, nodeCount, net.epsilon1, net.epsilon2);
 		//models[id] = new MVNModel(clusters[id]);
 		//recentFailures.add(new FailureList<Integer>(id, FAIL_BUF_SIZE_PER_CLUSTER));
 		//clusterHistory[id] = new ClusterHistory();
@@ -48,6 +57,8 @@ public class BaseStation {
 		clusterMsgs = new Hashtable[clusterCount];
 		if (net.coding)
 		    decoder = new Decoder(net.encoderConfiguration);
+		if (net.epochThreads > 1 && clusterCount > 1)
+			epochPool = new ForkJoinPool(Math.min(net.epochThreads, clusterCount));
 	}
 	
 	/*@SuppressWarnings("unchecked")
@@ -63,6 +74,23 @@ public class BaseStation {
 	}
 */
 	public void receive() {
+		if (net.actors) {
+			if (actors == null)
+				actors = new Actors(net, clusters);
+			ClusterMessage[] msgs = actors.tick();
+			for (int i = 0; i < clusters.length; i++) {
+				clusters[i].flushTrace();
+				if (net.coding)
+					receive1(msgs[i]);
+				else
+					receive(msgs[i]);
+			}
+			return;
+		}
+		if (epochPool != null) {
+			receiveConcurrently();
+			return;
+		}
 		for(Cluster c: clusters) {
 		    if (net.coding)
 		        receive1(c.send());
@@ -70,13 +98,45 @@ public class BaseStation {
 		        receive(c.send());
 		}
 	}
+
+	/**
+	 * Lets all clusters send at once and receives their messages when the
+	 * last one is done, in cluster order. Within an epoch a cluster only
+	 * touches its own state and the base station only reads the messages, so
+	 * the outcome and the trace are those of the sequential epoch.
+	 */
+	private void receiveConcurrently() {
+		if (sends == null) {
+			sends = new ArrayList<Callable<ClusterMessage>>(clusters.length);
+			for (Cluster c : clusters) {
+				c.setBufferedTrace(true);
+				sends.add(c::send);
+			}
+		}
+		List<Future<ClusterMessage>> msgs = epochPool.invokeAll(sends);
+		for (int i = 0; i < clusters.length; i++) {
+			ClusterMessage msg;
+			try {
+				msg = msgs.get(i).get();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("cluster " + i + " failed to send", e.getCause());
+			}
+			clusters[i].flushTrace();
+			if (net.coding)
+				receive1(msg);
+			else
+				receive(msg);
+		}
+	}
 	
 	public void receive(ClusterMessage msg) {
 		if (msg != null && msg.success) {
 			int id = msg.from;
 			if (msg.content != null)
 				clusterMsgs[id].put(time, msg.content);
-			if (NetworkConfiguration.getGlobalNetwork().assumeNoFailures == 1) {
+			if (net.assumeNoFailures == 1) {
 				int k;
 				// Extend previous interval
 				if ((k = clusterHistory[id].size()) > 0)
@@ -93,7 +153,7 @@ public class BaseStation {
 			clusterHistory[id].add(time, time, Interval.Type.GOOD, msg.seq);
 			logger.info(String.format("T %d C %d type %d %s", time, id, msg.type, Helper.toString(msg.content)));
 			logger.info(String.format("T %d C %d intervals %s", time, id, clusterHistory[msg.from]));
-			if (NetworkConfiguration.getGlobalNetwork().maxTry2 != -1) {
+			if (net.maxTry2 != -1) {
 				logger.info(String.format("T %d BS ACK 1", time));
 			}
 		}
@@ -111,7 +171,7 @@ public class BaseStation {
 				clusterMsgs[msg.from].put(time, msg.content);
 			if (msg.success) {
 				int id = msg.from;
-				if (NetworkConfiguration.getGlobalNetwork().assumeNoFailures == 1) {
+				if (net.assumeNoFailures == 1) {
 					int k;
 					// Extend previous interval
 					if ((k = clusterHistory[id].size()) > 0)
@@ -128,7 +188,7 @@ public class BaseStation {
 				clusterHistory[id].add(time, time, Interval.Type.GOOD, msg.seq);
 				logger.info(String.format("T %d C %d type %d %s", time, id, msg.type, Helper.toString(msg.content)));
 				logger.info(String.format("T %d C %d intervals %s", time, id, clusterHistory[id]));
-				if (NetworkConfiguration.getGlobalNetwork().maxTry2 != -1) {
+				if (net.maxTry2 != -1) {
 					logger.info(String.format("T %d BS ACK 1", time));
 				}
 			}
@@ -246,10 +306,31 @@ public class BaseStation {
 	 * Let each cluster clean its Interval history by sorting according to the seq no.
 	 */
     public void cleanup() {
+        if (epochPool != null) {
+            epochPool.shutdown();
+        }
+        if (actors != null) {
+            actors.stop();
+        }
         for (Cluster c : clusters) {
             int id = c.id;
             clusterHistory[id].sort();
             logger.info(String.format("T %d C %d INTERVALS %s", time, id, clusterHistory[id]));
+            Model model = c.getModel();
+            String report = model.report();
+            if (report != null) {
+                logger.info(String.format("C %d %s", id, report));
+            }
+            report = c.predictors[0].report();
+            if (report != null) {
+                logger.info(String.format("C %d node predictor %s sends %d", id, report,
+                        c.getNodeSendCount()));
+            }
+            SubsetSelector selector = model.getSubsetSelector();
+            report = selector == null ? null : selector.report();
+            if (report != null) {
+                logger.info(String.format("C %d %s", id, report));
+            }
         }
     }
 }
@@ -0,0 +1,287 @@
+package sim.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import Jama.Matrix;
+
+/**
+ * Selects a minimum subset, i.e. the smallest set of current values that keeps
+ * all other predictions bounded.
+ * <p>
+ * The subsets are searched depth first in lexicographic order, one fork-join
+ * task per leading element, against an incumbent shared by the tasks: at
+ * first the solution of {@link GreedySubsetSelector}, later the best subset
+ * found. Every prefix is a subset of its own and is evaluated. A feasible
+ * prefix ends its branch, since all its extensions are larger, and a prefix
+ * is only extended while the extension can still beat the incumbent: be
+ * smaller than it or, for a found subset, as small and lexicographically
+ * before it. Both cuts are exact, so a completed search returns the
+ * lexicographically first of the smallest feasible subsets, whatever the
+ * number of threads, and greedy only where nothing smaller is feasible.
+ * <p>
+ * The search stops at the time budget and then returns the best subset found
+ * so far, which is at worst the greedy one. {@link #toString()} reports how
+ * far greedy was from the optimum over all completed searches.
+ * <p>
+ * The model's predict must be thread-safe.
+ */
+public class BranchAndBoundSubsetSelector implements SubsetSelector {
+    private static Logger logger = Logger.getLogger(BranchAndBoundSubsetSelector.class);
+
+    Model model;
+    private final GreedySubsetSelector greedy;
+    /** time budget of one selection in milliseconds */
+    private final long budget;
+    private final ForkJoinPool pool;
+
+    // statistics
+    private long selections = 0;
+    private long timeouts = 0;
+    /** subsets where optimal was smaller than greedy */
+    private long improved = 0;
+    /** total subset sizes of greedy and of the optimum, over completed searches */
+    private long greedySize = 0;
+    private long optimalSize = 0;
+    private long evaluations = 0;
+    /** prefixes not extended because they were feasible or by the incumbent */
+    private long pruned = 0;
+
+    /**
+     * @param budget
+     *            time budget of one selection in milliseconds
+     */
+    public BranchAndBoundSubsetSelector(Model m, long budget) {
+        this(m, budget, ForkJoinPool.commonPool());
+    }
+
+    public BranchAndBoundSubsetSelector(Model m, long budget, ForkJoinPool pool) {
+        model = m;
+        greedy = new GreedySubsetSelector(m);
+        this.budget = budget;
+        this.pool = pool;
+    }
+
+    /**
+     * State shared by the tasks of one search.
+     */
+    private class Search {
+        final Matrix mean, cov, sentValues, currentValues;
+        final double e;
+        final int m;
+        final long deadline;
+        /** size of the incumbent */
+        private int bestSize;
+        /** best subset found, in increasing order; null while greedy is the incumbent */
+        private int[] best;
+        volatile boolean timeout = false;
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger pruned = new AtomicInteger();
+
+        Search(Matrix mean, Matrix cov, Matrix sentValues, Matrix currentValues, double e,
+                long deadline, int greedySize) {
+            this.mean = mean;
+            this.cov = cov;
+            this.sentValues = sentValues;
+            this.currentValues = currentValues;
+            this.e = e;
+            this.deadline = deadline;
+            m = mean.getRowDimension() / 2;
+            bestSize = greedySize;
+        }
+
+        /**
+         * @return true if the subset, in increasing order, beats the
+         *         incumbent: it is smaller, or as small as a found subset and
+         *         lexicographically before it
+         */
+        synchronized boolean beats(int[] subset, int size) {
+            if (size != bestSize) {
+                return size < bestSize;
+            }
+            if (best == null) {
+                return false;
+            }
+            for (int k = 0; k < size; k++) {
+                if (subset[k] != best[k]) {
+                    return subset[k] < best[k];
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Makes a feasible subset the incumbent if it beats it.
+         */
+        synchronized void offer(int[] subset, int size) {
+            if (beats(subset, size)) {
+                bestSize = size;
+                best = new int[size];
+                System.arraycopy(subset, 0, best, 0, size);
+            }
+        }
+
+        synchronized int[] getBest() {
+            return best;
+        }
+
+        void resetPrediction() {
+            model.resetPrediction();
+        }
+
+        /**
+         * @return number of other predictions that are unbounded when the
+         *         current values of subset are sent
+         */
+        int unbounded(int[] subset, int size, int[] sentIndex, int[] predictIndex,
+                Matrix values) {
+            Helper.reset(sentIndex, 0);
+            Helper.reset(predictIndex, m);
+            for (int i = 0; i < m; i++) {
+                values.set(i, 0, sentValues.get(i, 0));
+            }
+            for (int k = 0; k < size; k++) {
+                int i = subset[k];
+                sentIndex[i] = predictIndex[i];
+                predictIndex[i] = -1;
+                values.set(i, 0, currentValues.get(i, 0));
+            }
+            count.incrementAndGet();
+            Matrix p = model.predict(mean, cov, sentIndex, predictIndex, values);
+            return Helper.countUnbounded(model.getKernels(), p, currentValues, predictIndex, e);
+        }
+    }
+
+    /**
+     * Searches the subsets with a given leading element.
+     */
+    private static class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+        private final int first;
+        // per task scratch
+        private final int[] subset;
+        private final int[] sentIndex;
+        private final int[] predictIndex;
+        private final Matrix values;
+
+        Task(Search search, int first) {
+            this.search = search;
+            this.first = first;
+            subset = new int[search.m];
+            sentIndex = new int[search.m];
+            predictIndex = new int[search.m];
+            values = new Matrix(search.m, 1);
+        }
+
+        @Override
+        protected void compute() {
+            // the worker may have predicted for another search before
+            search.resetPrediction();
+            subset[0] = first;
+            if (search.beats(subset, 1)) {
+                visit(1);
+            }
+        }
+
+        /**
+         * Evaluates the prefix subset[0..k-1] and searches its extensions.
+         */
+        private void visit(int k) {
+            if (search.timeout) {
+                return;
+            }
+            if (System.currentTimeMillis() > search.deadline) {
+                search.timeout = true;
+                return;
+            }
+            if (search.unbounded(subset, k, sentIndex, predictIndex, values) == 0) {
+                search.offer(subset, k);
+                search.pruned.incrementAndGet();
+                return;
+            }
+            for (int i = subset[k - 1] + 1; i < search.m; i++) {
+                subset[k] = i;
+                // later extensions are lexicographically after this one
+                if (!search.beats(subset, k + 1)) {
+                    search.pruned.incrementAndGet();
+                    break;
+                }
+                visit(k + 1);
+            }
+        }
+    }
+
+    @Override
+    public int[] select(Matrix mean, Matrix cov, Matrix sentValues,
+            Matrix currentValues, double e) {
+        long deadline = System.currentTimeMillis() + budget;
+        int[] best = greedy.select(mean, cov, sentValues.copy(), currentValues, e);
+        int greedyLength = best.length;
+        int m = mean.getRowDimension() / 2;
+
+        // the selector is only asked when sending nothing is not enough
+        Search search = new Search(mean, cov, sentValues, currentValues, e, deadline,
+                greedyLength);
+        if (greedyLength > 1) {
+            List<Task> tasks = new ArrayList<Task>();
+            for (int first = 0; first < m; first++) {
+                tasks.add(new Task(search, first));
+            }
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+        if (search.getBest() != null) {
+            best = search.getBest();
+        }
+        boolean complete = !search.timeout;
+        long calls = search.count.get();
+        long cut = search.pruned.get();
+
+        synchronized (this) {
+            selections++;
+            evaluations += calls;
+            pruned += cut;
+            if (complete) {
+                greedySize += greedyLength;
+                optimalSize += best.length;
+                if (best.length < greedyLength) {
+                    improved++;
+                }
+            } else {
+                timeouts++;
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("branch and bound subset %d greedy %d %s predict calls %d pruned %d",
+                    best.length, greedyLength, complete ? "optimal" : "timeout", calls, cut));
+        }
+        return best;
+    }
+
+    @Override
+    public String report() {
+        return "branch and bound " + this;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "selections %d optimal %d timeouts %d improved %d greedy size %d optimal size %d gap %.4f predict calls %d pruned %d",
+                selections, selections - timeouts, timeouts, improved, greedySize, optimalSize,
+                greedySize == 0 ? 0 : ((double) (greedySize - optimalSize)) / greedySize,
+                evaluations, pruned);
+    }
+}
@@ -0,0 +1,120 @@
+package sim.nodes;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import Jama.Matrix;
+
+/**
+ * Scores subset candidates of a selector in parallel.
+ * <p>
+ * A candidate is a set of nodes that send their current values on top of a
+ * base state (sentIndex, predictIndex, sentValues); its score is the number
+ * of predictions that are then unbounded. The base state and mean and cov
+ * are only read; every task works on its own copies. Candidates are split
+ * into chunks of fixed size, and each chunk starts with a fresh prediction
+ * state of the model, so the scores do not depend on the number of threads.
+ */
+class CandidateEvaluator {
+
+    /** cluster size from which selectors evaluate in parallel by default */
+    static final int DEFAULT_THRESHOLD = 32;
+
+    /** candidates scored by one task */
+    static final int CHUNK = 8;
+
+    private final Model model;
+    private final ForkJoinPool pool;
+
+    CandidateEvaluator(Model model) {
+        this(model, ForkJoinPool.commonPool());
+    }
+
+    CandidateEvaluator(Model model, ForkJoinPool pool) {
+        this.model = model;
+        this.pool = pool;
+    }
+
+    /**
+     * @param add
+     *            nodes added by each candidate; null entries are skipped
+     * @param counts
+     *            receives the number of unbounded predictions of each
+     *            candidate
+     */
+    void count(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
+            Matrix sentValues, Matrix currentValues, double e, int[][] add, int[] counts) {
+        pool.invoke(new Chunks(new Base(mean, cov, sentIndex, predictIndex, sentValues,
+                currentValues, e), add, counts, 0, add.length));
+    }
+
+    private static class Base {
+        final Matrix mean, cov, sentValues, currentValues;
+        final int[] sentIndex, predictIndex;
+        final double e;
+
+        Base(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
+                Matrix sentValues, Matrix currentValues, double e) {
+            this.mean = mean;
+            this.cov = cov;
+            this.sentIndex = sentIndex;
+            this.predictIndex = predictIndex;
+            this.sentValues = sentValues;
+            this.currentValues = currentValues;
+            this.e = e;
+        }
+    }
+
+    private class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Base base;
+        private final int[][] add;
+        private final int[] counts;
+        private final int from, to;
+
+        Chunks(Base base, int[][] add, int[] counts, int from, int to) {
+            this.base = base;
+            this.add = add;
+            this.counts = counts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                // split on a chunk boundary
+                int mid = from + CHUNK * ((to - from + CHUNK - 1) / CHUNK / 2);
+                invokeAll(new Chunks(base, add, counts, from, mid),
+                        new Chunks(base, add, counts, mid, to));
+                return;
+            }
+
+            int[] sentIndex = base.sentIndex.clone();
+            int[] predictIndex = base.predictIndex.clone();
+            Matrix sentValues = base.sentValues.copy();
+            model.resetPrediction();
+            for (int c = from; c < to; c++) {
+                if (add[c] == null) {
+                    continue;
+                }
+                for (int i : add[c]) {
+                    sentIndex[i] = predictIndex[i];
+                    predictIndex[i] = -1;
+                    sentValues.set(i, 0, base.currentValues.get(i, 0));
+                }
+                Matrix p = model.predict(base.mean, base.cov, sentIndex, predictIndex,
+                        sentValues);
+                counts[c] = Helper.countUnbounded(model.getKernels(), p,
+                        base.currentValues, predictIndex, base.e);
+                // restore
+                for (int i : add[c]) {
+                    sentIndex[i] = base.sentIndex[i];
+                    predictIndex[i] = base.predictIndex[i];
+                    sentValues.set(i, 0, base.sentValues.get(i, 0));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package sim.nodes;
+
+import Jama.Matrix;
+
+/**
+ * Conditional prediction engine for a multivariate normal distribution.
+ * <p>
+ * Keeps a Cholesky factor of the conditioning block cov(sent, sent) between
+ * calls. When entries of sentIndex change from one call to the next (as they
+ * do when a subset selector tries candidates one by one), the affected rows
+ * are downdated out of the factor and the new indices are appended, so a call
+ * costs O(k^2) instead of a fresh O(k^3) inverse. Predictions are obtained by
+ * triangular solves; no explicit inverse is ever formed.
+ * <p>
+ * The covariance matrix is read from a row-major array. The factor is only
+ * valid for the array and version it was bound to with {@link #bind}. The
+ * array may be in single precision; the factor and the solves are always in
+ * double.
+ * <p>
+ * Dot products and triangular solves go through {@link Kernels}.
+ */
+public class CholeskyPredictor {
+
+    /** bound covariance, row-major; one of the two is null */
+    private double[] cov;
+    private float[] fcov;
+    private int stride;
+    private int version;
+
+    /** number of variables in the factor */
+    private int k;
+    private int capacity;
+    /** lower triangular factor, row-major capacity x capacity */
+    private double[] l;
+    /** slot (position in sentIndex) of each factor row */
+    private int[] slotOfRow;
+    /** covariance index factored for each slot, -1 if none */
+    private int[] factored;
+
+    private final Kernels kernels;
+
+    // scratch
+    private double[] x;
+    private double[] w;
+    /** covariance index of each factor row */
+    private int[] columns;
+
+    public CholeskyPredictor() {
+        this(Kernels.SCALAR);
+    }
+
+    public CholeskyPredictor(Kernels kernels) {
+        this.kernels = kernels;
+        cov = null;
+        k = 0;
+        capacity = 0;
+        factored = new int[0];
+    }
+
+    /**
+     * Binds the predictor to a covariance matrix. The current factor is kept
+     * only if the same array is bound again with the same version.
+     *
+     * @param cov
+     *            covariance matrix, row-major
+     * @param stride
+     *            row length of cov
+     * @param version
+     *            changes whenever the content of cov changes
+     */
+    public void bind(double[] cov, int stride, int version) {
+        if (this.cov != cov || this.stride != stride || this.version != version) {
+            this.cov = cov;
+            this.fcov = null;
+            this.stride = stride;
+            this.version = version;
+            invalidate();
+        }
+    }
+
+    /**
+     * Binds the predictor to a covariance matrix in single precision, see
+     * {@link #bind(double[], int, int)}.
+     */
+    public void bind(float[] cov, int stride, int version) {
+        if (this.fcov != cov || this.stride != stride || this.version != version) {
+            this.cov = null;
+            this.fcov = cov;
+            this.stride = stride;
+            this.version = version;
+            invalidate();
+        }
+    }
+
+    /**
+     * @return element i of the bound covariance
+     */
+    private double at(int i) {
+        return cov != null ? cov[i] : fcov[i];
+    }
+
+    /**
+     * Discards the current factor.
+     */
+    public void invalidate() {
+        k = 0;
+        for (int i = 0; i < factored.length; i++) {
+            factored[i] = -1;
+        }
+    }
+
+    /**
+     * Predicts elements given the values of a subset.
+     *
+     * @param mean
+     *            mean vector
+     * @param sentIndex
+     *            which elements are sent (conditioned on)
+     * @param predictIndex
+     *            which elements to be predicted; -1 entries are skipped
+     * @param sentValues
+     *            values of sent elements, in sentIndex order
+     * @param result
+     *            prediction for each non-negative entry of predictIndex, packed
+     */
+    public void predict(double[] mean, int[] sentIndex, int[] predictIndex,
+            double[] sentValues, double[] result) {
+        if (!update(sentIndex)) {
+            predictDense(mean, sentIndex, predictIndex, sentValues, result);
+            return;
+        }
+
+        // solve cov(sent,sent) * w = sentValues - mean(sent)
+        for (int p = 0; p < k; p++) {
+            int s = slotOfRow[p];
+            x[p] = sentValues[s] - mean[sentIndex[s]];
+        }
+        solve(x, w);
+
+        for (int p = 0; p < k; p++) {
+            columns[p] = factored[slotOfRow[p]];
+        }
+        int n = 0;
+        for (int q : predictIndex) {
+            if (q == -1) {
+                continue;
+            }
+            if (cov != null) {
+                result[n++] = kernels.dotGather(mean[q], cov, q * stride, columns, w, k);
+            } else {
+                int row = q * stride;
+                for (int p = 0; p < k; p++) {
+                    x[p] = fcov[row + columns[p]];
+                }
+                result[n++] = kernels.dot(mean[q], x, 0, w, 0, k);
+            }
+        }
+    }
+
+    /**
+     * Brings the factor in line with sentIndex, reusing as much as possible.
+     *
+     * @return false if cov(sent, sent) is not numerically positive definite
+     */
+    private boolean update(int[] sentIndex) {
+        int n = sentIndex.length;
+        if (factored.length != n) {
+            factored = new int[n];
+            invalidate();
+        }
+        ensureCapacity(n);
+
+        int changed = 0;
+        for (int i = 0; i < n; i++) {
+            if (factored[i] != sentIndex[i]) {
+                changed++;
+            }
+        }
+        if (changed == 0) {
+            return true;
+        }
+        // a full factorization is cheaper than many single-row updates
+        if (k == 0 || 4 * changed > n) {
+            return factor(sentIndex);
+        }
+        for (int i = 0; i < n; i++) {
+            if (factored[i] != sentIndex[i]) {
+                remove(i);
+                if (!append(i, sentIndex[i])) {
+                    return factor(sentIndex);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Factors cov(sentIndex, sentIndex) from scratch.
+     */
+    private boolean factor(int[] sentIndex) {
+        invalidate();
+        for (int i = 0; i < sentIndex.length; i++) {
+            if (!append(i, sentIndex[i])) {
+                invalidate();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends variable index of the given slot as the last row of the factor.
+     *
+     * @return false if the extended matrix is not positive definite
+     */
+    private boolean append(int slot, int index) {
+        // solve L y = cov(sent, index)
+        int row = index * stride;
+        for (int p = 0; p < k; p++) {
+            x[p] = at(row + factored[slotOfRow[p]]);
+        }
+        kernels.solveLower(l, capacity, k, x, x);
+        double d = kernels.residual(at(row + index), x, 0, x, 0, k);
+        System.arraycopy(x, 0, l, k * capacity, k);
+        if (!(d > 0)) {
+            return false;
+        }
+        l[k * capacity + k] = Math.sqrt(d);
+        slotOfRow[k] = slot;
+        factored[slot] = index;
+        k++;
+        return true;
+    }
+
+    /**
+     * Removes the factor row of the given slot. The trailing block is
+     * restored by a rank-one update with the removed column.
+     */
+    private void remove(int slot) {
+        int r = 0;
+        while (slotOfRow[r] != slot) {
+            r++;
+        }
+        // removed column below the diagonal
+        for (int i = r + 1; i < k; i++) {
+            x[i] = l[i * capacity + r];
+        }
+        // shift rows up and columns left
+        for (int i = r; i < k - 1; i++) {
+            int dst = i * capacity;
+            int src = (i + 1) * capacity;
+            System.arraycopy(l, src, l, dst, r);
+            System.arraycopy(l, src + r + 1, l, dst + r, i + 1 - r);
+            slotOfRow[i] = slotOfRow[i + 1];
+            x[i] = x[i + 1];
+        }
+        k--;
+        factored[slot] = -1;
+
+        // rank-one update of the trailing block with x[r..k)
+        for (int j = r; j < k; j++) {
+            int lj = j * capacity;
+            double ljj = l[lj + j];
+            double h = Math.hypot(ljj, x[j]);
+            double c = h / ljj;
+            double s = x[j] / ljj;
+            l[lj + j] = h;
+            for (int i = j + 1; i < k; i++) {
+                int li = i * capacity + j;
+                l[li] = (l[li] + s * x[i]) / c;
+                x[i] = c * x[i] - s * l[li];
+            }
+        }
+    }
+
+    /**
+     * Fallback for a conditioning block that is not positive definite, e.g.
+     * because of rounding: an LU solve of the dense block.
+     */
+    private void predictDense(double[] mean, int[] sentIndex, int[] predictIndex,
+            double[] sentValues, double[] result) {
+        int n = sentIndex.length;
+        Matrix kss = new Matrix(n, n);
+        Matrix b = new Matrix(n, 1);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                kss.set(i, j, at(sentIndex[i] * stride + sentIndex[j]));
+            }
+            b.set(i, 0, sentValues[i] - mean[sentIndex[i]]);
+        }
+        double[] y = kss.solve(b).getColumnPackedCopy();
+        int r = 0;
+        for (int q : predictIndex) {
+            if (q == -1) {
+                continue;
+            }
+            double v = mean[q];
+            for (int j = 0; j < n; j++) {
+                v += at(q * stride + sentIndex[j]) * y[j];
+            }
+            result[r++] = v;
+        }
+    }
+
+    /**
+     * Solves L L' y = b.
+     */
+    private void solve(double[] b, double[] y) {
+        kernels.solveLower(l, capacity, k, b, y);
+        kernels.solveLowerTransposed(l, capacity, k, y);
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= capacity) {
+            return;
+        }
+        double[] nl = new double[n * n];
+        for (int i = 0; i < k; i++) {
+            System.arraycopy(l, i * capacity, nl, i * n, i + 1);
+        }
+        int[] ns = new int[n];
+        if (slotOfRow != null) {
+            System.arraycopy(slotOfRow, 0, ns, 0, k);
+        }
+        l = nl;
+        slotOfRow = ns;
+        x = new double[n];
+        w = new double[n];
+        columns = new int[n];
+        capacity = n;
+    }
+
+    /**
+     * Copies a Jama matrix into a row-major array, reusing buf if it is large
+     * enough.
+     */
+    static double[] flatten(Matrix a, double[] buf) {
+        int rows = a.getRowDimension();
+        int cols = a.getColumnDimension();
+        if (buf == null || buf.length < rows * cols) {
+            buf = new double[rows * cols];
+        }
+        double[][] d = a.getArray();
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(d[i], 0, buf, i * cols, cols);
+        }
+        return buf;
+    }
+
+    /**
+     * Copies a Jama matrix into a row-major array in single precision.
+     */
+    static float[] flattenFloat(Matrix a, float[] buf) {
+        int rows = a.getRowDimension();
+        int cols = a.getColumnDimension();
+        if (buf == null || buf.length < rows * cols) {
+            buf = new float[rows * cols];
+        }
+        double[][] d = a.getArray();
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                buf[i * cols + j] = (float) d[i][j];
+            }
+        }
+        return buf;
+    }
+}
@@ -4,9 +4,12 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.log4j.Logger;
 
+import Jama.Matrix;
+
 import sim.constraints.IntervalList;
 import coding.Encoder;
 import coding.Symbol;
@@ -18,6 +21,7 @@ public class Cluster {
 	Node[] nodes;
 
 	public int id;
+	private final int index; // position in the base station
 	public int[] nodeGlobalIDs; // real node Ids in index order
 	//public double[][] data; // [node][time]
 	public Hashtable<String, Object> params;
@@ -28,15 +32,22 @@ public class Cluster {
 
 	private int nodeCount;
 	private int time;
-	private int maxTry = NetworkConfiguration.getGlobalNetwork().maxTry2;
+	private final SimulationContext context;
+	private final Network net;
+	private int maxTry;
 	private FailureGenerator failureGenerator;
 	private static Logger logger = Logger.getLogger(Cluster.class);
+	// trace lines of the epoch while the cluster sends concurrently with
+	// others, null while they are logged right away
+	private List<Runnable> trace;
 	
 	public IntervalList[] intervalLists;
 	//public List<Integer>[] failureLists;
 	public TransmissionList transmissionList = new TransmissionList();
 	
 	double[] lastReceived;
+	// mirrors of the children's suppression predictors
+	NodePredictor[] predictors;
 	// double[] lastSent;
 	private Model model;
 	// transmission history (success/failure) for all child nodes
@@ -44,6 +55,12 @@ public class Cluster {
 
 	List<ClusterMessage> history;
 
+	// children by the epoch of their next transmission, null while every
+	// child is stepped every epoch
+	private PriorityQueue<Node> events;
+	// children as arrays, null while they are stepped as Node objects
+	private NodeTier nodeTier;
+
 	private boolean hasNewFailure;
 
 	// how many past msgs (to basestation) do we keep as redundancies
@@ -55,12 +72,17 @@ public class Cluster {
 
 	Encoder encoder;
 	private int seq = 0;
-	public Cluster(int nodeCount, double epsilon1, double epsilon2) {
+	public Cluster(SimulationContext context, int index, int nodeCount, double epsilon1, double epsilon2) {
+		this.context = context;
+		this.index = index;
+		this.net = context.getNetwork();
 		this.nodeCount = nodeCount;
 		this.epsilon1  = epsilon1;
 		this.epsilon2 = epsilon2;
+		maxTry = net.maxTry2;
 		
-		failureGenerator = new SimpleFailureGenerator(NetworkConfiguration.getGlobalNetwork().failureRate2, id);
+		failureGenerator = context.createFailureGenerator(net.failureRate2,
+				SimulationContext.HEAD_TIER, index, id);
 
 		createNodes();
 		params = new Hashtable<String, Object>();
@@ -71,11 +93,12 @@ public class Cluster {
 		history = new ArrayList<ClusterMessage>();
 		childHistory = new IntervalList[nodeCount];
 		lastReceived = new double[nodeCount];
+		predictors = new NodePredictor[nodeCount];
 		for (int i = 0; i < nodeCount; i++) {
-			childHistory[i] = new IntervalList(NetworkConfiguration.getGlobalNetwork().nodeRedundancyFromHeadToBase);
+			predictors[i] = new NodePredictor.Constant();
+			childHistory[i] = new IntervalList(net.nodeRedundancyFromHeadToBase);
 		}
 		
-		Network net = NetworkConfiguration.getGlobalNetwork();
 		if (net.coding) {
 		    encoder = new Encoder(net.encoderConfiguration);
 		}
@@ -115,19 +138,45 @@ public class Cluster {
 		
 		// receive messages from children
 		NodeMessage[] msgs = new NodeMessage[nodeCount];
-		int k = 0;
-		for (Node node : nodes) {
-			msgs[k++] = node.send();
+		if (net.arrayNodes) {
+			if (nodeTier == null) {
+				nodeTier = new NodeTier(this, nodes);
+			}
+			msgs = nodeTier.send();
+		} else if (net.eventNodes) {
+			sendEvents(msgs);
+		} else {
+			int k = 0;
+			for (Node node : nodes) {
+				msgs[k++] = node.send();
+			}
 		}
+		return forward(msgs);
+	}
+
+	/**
+	 * The head's part of {@link #send()}, for children that run on their
+	 * own, e.g. as actors: starts the next epoch with the given messages of
+	 * the children.
+	 */
+	ClusterMessage send(NodeMessage[] msgs) {
+		time++;
+		return forward(msgs);
+	}
+
+	private ClusterMessage forward(NodeMessage[] msgs) {
 		receive(msgs);
 		
 		// approximate current values for children by lastReceived
 		// because they are bounded
 		int[] sentIndex = model.send(lastReceived);
+		if (sentIndex != null) {
+			context.countSent(sentIndex.length);
+		}
 
 		// nothing to send: empty subset and no child failures
 		if (sentIndex == null && !hasNewFailure) {
-			logger.info(String.format("T %d C %d suppression", time, id));
+			trace(logger, String.format("T %d C %d suppression", time, id));
 			return null;
 		}
 		
@@ -195,7 +244,7 @@ public class Cluster {
 
 
 		// evict old history item if necessary
-		if (history.size() > NetworkConfiguration.getGlobalNetwork().headRedundancy) {
+		if (history.size() > net.headRedundancy) {
 			history.remove(0);
 		}
 		history.add(msg);
@@ -206,18 +255,18 @@ public class Cluster {
 		boolean failed = true;
 		int count = 0;
 		if (maxTry == -1) { // no retry, rely on redundancies
-			failed = failureGenerator.isFailure();
+			failed = failureGenerator.isFailure(time, count);
 			count++;
 		}
 		else if (maxTry == 0) { // try until success
 			while (failed) {
-				failed = failureGenerator.isFailure();
+				failed = failureGenerator.isFailure(time, count);
 				count++;
 			}
 		}
 		else { // try maxTry times
 			while(failed & count < maxTry) {
-				failed = failureGenerator.isFailure();
+				failed = failureGenerator.isFailure(time, count);
 				count++;				
 			}
 		}
@@ -225,14 +274,41 @@ public class Cluster {
 		msg.success = !failed;
 		msg.tryCount = count;
 		if (failed) {
-			logger.info(String.format("T %d C %d failure, transmitting %s, tried %d times", time, id, Helper.toString(msg.content), count));
+			trace(logger, String.format("T %d C %d failure, transmitting %s, tried %d times", time, id, Helper.toString(msg.content), count));
 		}
 		else {
-			logger.info(String.format("T %d C %d success, transmitting %s, tried %d times", time, id, Helper.toString(msg.content), count));
+			trace(logger, String.format("T %d C %d success, transmitting %s, tried %d times", time, id, Helper.toString(msg.content), count));
 		}
 		return msg;
 	}
 
+	/**
+	 * Lets the children whose next transmission is due send. The others are
+	 * suppressed in this epoch and are not stepped at all: they neither read
+	 * nor trace, so a child costs one scan of its readings up to its next
+	 * transmission instead of a step per epoch.
+	 */
+	private void sendEvents(NodeMessage[] msgs) {
+		if (events == null) {
+			events = new PriorityQueue<Node>(nodeCount, (x, y) -> x.nextEvent != y.nextEvent
+					? Integer.compare(x.nextEvent, y.nextEvent)
+					: Integer.compare(x.getId(), y.getId()));
+			for (Node node : nodes) {
+				node.nextEvent = node.nextTransmission(net.timeSteps);
+				events.add(node);
+			}
+		}
+		while (!events.isEmpty() && events.peek().nextEvent == time) {
+			Node node = events.poll();
+			node.skipTo(time);
+			msgs[node.getId()] = node.send();
+			node.nextEvent = node.nextTransmission(net.timeSteps);
+			if (node.nextEvent < net.timeSteps) {
+				events.add(node);
+			}
+		}
+	}
+
 	/**
 	 * Receives a list of messages from child nodes. This happens once every epoch.
 	 * 
@@ -255,10 +331,10 @@ public class Cluster {
 				else
 					bcast.put(msg.tryCount, 1);
 				if (msg.protocol == NodeMessage.Protocol.TS) {
-					lastReceived[msg.from] = msg.value;
+					updateNodePredictor(msg);
 					updateNodeHistory(msg);
-					logger.info(String.format("T %d N %d value %f",time,msg.from,msg.value));
-					logger.info(String.format("T %d N %d intervals %s", time, msg.from, childHistory[msg.from]));
+					trace(logger, String.format("T %d N %d value %f",time,msg.from,msg.value));
+					trace(logger, String.format("T %d N %d intervals %s", time, msg.from, childHistory[msg.from]));
 					/*logger.info(String.format(
 							"T %d N %d redundancy %s recovered history %s known interval %d to %d", time,
 							msg.from, Helper.list2string(msg.history), Helper
@@ -266,10 +342,14 @@ public class Cluster {
 				*/}
 			}
 		}
+		// suppressed children are within epsilon1 of the prediction
+		for (int i=0; i<nodeCount; i++) {
+			lastReceived[i] = predictors[i].predict(time);
+		}
 		/* Log ACK activity
 		 * ACK x1 x2 ... xn means n broadcast ACK messages, each ACKing xi child nodes 
 		 */
-		if (NetworkConfiguration.getGlobalNetwork().maxTry1 != -1) {
+		if (net.maxTry1 != -1) {
 		String s = "";
 		Enumeration<Integer> keys = bcast.keys();
 		while (keys.hasMoreElements()) {
@@ -277,13 +357,30 @@ public class Cluster {
 			Integer val = bcast.get(key);
 			s += " "+val;
 		}
-		logger.info(String.format("T %d C %d ACK"+s, time, id));
+		trace(logger, String.format("T %d C %d ACK"+s, time, id));
 		}
 	}
 
+	/**
+	 * Brings the mirror of the child's predictor up to date. The child's
+	 * redundancy history holds its last transmissions, lost ones included, so
+	 * the mirror catches up on those still in the history.
+	 */
+	private void updateNodePredictor(NodeMessage msg) {
+		NodePredictor p = predictors[msg.from];
+		if (msg.history != null) {
+			for (NodeMessage m : msg.history) {
+				if (m.epoch > p.getLastEpoch() && m.epoch < msg.epoch) {
+					p.update(m.epoch, m.value);
+				}
+			}
+		}
+		p.update(msg.epoch, msg.value);
+	}
+
 	private void updateNodeHistory(NodeMessage msg) {
 		/* If assuming no failures could happen, then all intervals are GOOD */
-		if (NetworkConfiguration.getGlobalNetwork().assumeNoFailures==1) {
+		if (net.assumeNoFailures==1) {
 			IntervalList h = childHistory[msg.from];
 			if (h.size() > 0) {
 				h.get(h.size()-1).end = msg.epoch-1;
@@ -341,7 +438,7 @@ public class Cluster {
 	}
 
 	public double[] getData(int time) {
-		return NetworkConfiguration.getGlobalDataProvider().getData(this, time);
+		return context.getDataProvider().getData(this, time);
 	}
 	
 	private void createNodes() {
@@ -354,6 +451,87 @@ public class Cluster {
 		}
 	}
 
+	/**
+	 * Sets the suppression predictor of the children and its mirror at the
+	 * head. The AR(1) predictor of a child gets the mean and the lag one
+	 * autocorrelation of that child under the cluster model, see
+	 * {@link AR1Model#marginals}.
+	 * 
+	 * @param name
+	 *            constant, trend or ar1
+	 * @param c
+	 *            constant term of the cluster model
+	 * @param a
+	 *            coefficients of the cluster model, m x pm for order p
+	 * @param sigma
+	 *            noise covariance of the cluster model
+	 */
+	public void setNodePredictor(String name, Matrix c, Matrix a, Matrix sigma) {
+		double[][] x = AR1Model.marginals(c, a, sigma);
+		for (int i = 0; i < nodeCount; i++) {
+			predictors[i] = NodePredictor.create(name, x[0][i], x[1][i]);
+			nodes[i].setPredictor(predictors[i].copy());
+		}
+	}
+
+	/**
+	 * @return number of transmission attempts of the children, excluding
+	 *         retries
+	 */
+	public int getNodeSendCount() {
+		if (nodeTier != null) {
+			return nodeTier.getSendCount();
+		}
+		int n = 0;
+		for (Node node : nodes) {
+			n += node.getSendCount();
+		}
+		return n;
+	}
+
+	/**
+	 * @return position of the cluster in the base station
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public SimulationContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Logs a trace line of the cluster or of one of its nodes, or keeps it
+	 * for {@link #flushTrace()} while the trace is buffered.
+	 */
+	void trace(Logger log, String line) {
+		if (trace != null) {
+			trace.add(() -> log.info(line));
+		} else {
+			log.info(line);
+		}
+	}
+
+	/**
+	 * Keeps the trace lines until {@link #flushTrace()}, so that clusters
+	 * sending concurrently can be traced in a fixed order.
+	 */
+	public void setBufferedTrace(boolean buffered) {
+		trace = buffered ? new ArrayList<Runnable>() : null;
+	}
+
+	/**
+	 * Logs the kept trace lines.
+	 */
+	public void flushTrace() {
+		if (trace != null) {
+			for (Runnable line : trace) {
+				line.run();
+			}
+			trace.clear();
+		}
+	}
+
 	public Model getModel() {
 		return model;
 	}
@@ -5,19 +5,42 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 
+import org.apache.log4j.Logger;
+
 public class DataProvider {
+	private static Logger logger = Logger.getLogger(DataProvider.class);
 
 	private double[][] data;
+	/** the readings in single precision; data is null then */
+	private float[][] floatData;
+	/** largest rounding error of a reading stored in single precision */
+	private double quantizationError = 0;
 	//private int nodeCount;
 	private int timeSteps;
 	
 	public DataProvider(int nodeCount, int timeSteps) {
+		this(nodeCount, timeSteps, false);
+	}
+
+	/**
+	 * @param singlePrecision
+	 *            store the readings as float, which halves the memory; they
+	 *            are widened to double when read
+	 */
+	public DataProvider(int nodeCount, int timeSteps, boolean singlePrecision) {
 		if (nodeCount <=0 || timeSteps <= 0) {
 			throw new IllegalArgumentException("arguments should be positive integers");
 		}
 		//this.nodeCount = nodeCount;
 		this.timeSteps = timeSteps;
 		
+		if (singlePrecision) {
+			floatData = new float[nodeCount][];
+			for (int i=0; i< nodeCount; i++) {
+				floatData[i] = new float[timeSteps];
+			}
+			return;
+		}
 		data = new double[nodeCount][];
 		for (int i=0; i< nodeCount; i++) {
 			data[i] = new double[timeSteps];
@@ -38,7 +61,14 @@ public class DataProvider {
 				String[] words = s.split(" ");
 				int k = 0;
 				for (String w : words) {
-					data[k++][time] = Double.parseDouble(w);
+					double v = Double.parseDouble(w);
+					if (floatData != null) {
+						floatData[k][time] = (float) v;
+						quantizationError = Math.max(quantizationError, Math.abs(floatData[k][time] - v));
+						k++;
+					} else {
+						data[k++][time] = v;
+					}
 				}
 				time++;
 			}
@@ -49,17 +79,59 @@ public class DataProvider {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		if (floatData != null) {
+			logger.info(String.format("single precision data, largest rounding error %g", quantizationError));
+		}
 	}
 	
 	public double getData(Node node, int time) {
-		return data[node.getGlobalID()][time];
+		return get(node.getGlobalID(), time);
 	}
 	
 	public double[] getData(Cluster cluster, int time) {
-		double[] d = new double[cluster.getNodeCount()];
-		for (int i=0; i< cluster.nodeGlobalIDs.length; i++) {
-			d[i] = data[cluster.nodeGlobalIDs[i]][time];
+		return getData(cluster.nodeGlobalIDs, time);
+	}
+
+	/**
+	 * @param nodes
+	 *            global ids of the nodes
+	 * @return the readings of the given nodes at time
+	 */
+	public double[] getData(int[] nodes, int time) {
+		double[] d = new double[nodes.length];
+		for (int i=0; i< nodes.length; i++) {
+			d[i] = get(nodes[i], time);
 		}
 		return d;
 	}
+
+	/**
+	 * Copies the readings of the given nodes for a number of epochs,
+	 * time-major: block[k][i] is the reading of nodes[i] at time + k. Each
+	 * node is read along its own row, so the copy stays in cache where a
+	 * gather per epoch would not.
+	 */
+	public void getBlock(int[] nodes, int time, int epochs, double[][] block) {
+		for (int i=0; i< nodes.length; i++) {
+			for (int k=0; k< epochs; k++) {
+				block[k][i] = get(nodes[i], time + k);
+			}
+		}
+	}
+
+	private double get(int node, int time) {
+		return floatData != null ? floatData[node][time] : data[node][time];
+	}
+
+	public int getTimeSteps() {
+		return timeSteps;
+	}
+
+	public boolean isSinglePrecision() {
+		return floatData != null;
+	}
+
+	public double getQuantizationError() {
+		return quantizationError;
+	}
 }
@@ -0,0 +1,120 @@
+package sim.nodes;
+
+import Jama.Matrix;
+
+/**
+ * {@link MVNModel} with the covariance kept diagonal: the mean still follows
+ * x(t) = c + a x(t-1), cross terms included, but the nodes are taken to be
+ * uncorrelated given the past.
+ * <p>
+ * With a diagonal covariance, conditioning on a sent value only changes the
+ * mean of that node, so the prediction of a node is the propagated mean, in
+ * which every sent value replaces the mean of its node. The subset to send is
+ * exactly the set of nodes whose prediction is off by more than epsilon. An
+ * epoch costs one product with a, O(m) for a sparse a, where the full model
+ * pays O(m^3) in the subset selection.
+ * <p>
+ * There is no covariance form: the constraints of the history reconstruction
+ * assume a model that conditions on all sent values.
+ */
+public class DiagonalModel implements Model {
+
+    /** number of nodes */
+    public int m;
+
+    public Matrix c;
+    public Matrix a;
+    public Matrix sigma;
+    double epsilon;
+
+    private SparseMatrix sa;
+    private double[] fc;
+    /** mean of the last epoch and of the current one */
+    private double[] mean, next;
+    private int[] identity, violated;
+
+    private final Kernels kernels;
+    private final ThreadLocal<MVNModel.MatrixPredictor> matrixPredictors;
+
+    public DiagonalModel(double epsilon, Matrix c, Matrix a, Matrix sigma) {
+        this(epsilon, c, a, sigma, Kernels.SCALAR);
+    }
+
+    public DiagonalModel(double epsilon, Matrix c, Matrix a, Matrix sigma, Kernels kernels) {
+        this.c = c;
+        this.a = a;
+        this.sigma = sigma;
+        this.epsilon = epsilon;
+        m = c.getRowDimension();
+        this.kernels = kernels;
+        matrixPredictors = ThreadLocal.withInitial(() -> new MVNModel.MatrixPredictor(kernels));
+    }
+
+    //@Override
+    public int[] send(double[] currentVal) {
+        // first time to send: always send out all values
+        if (mean == null) {
+            sa = SparseMatrix.of(a, kernels);
+            fc = c.getColumnPackedCopy();
+            mean = currentVal.clone();
+            next = new double[m];
+            identity = new int[m];
+            violated = new int[m];
+            Helper.reset(identity, 0);
+            return identity.clone();
+        }
+
+        int count = 0;
+        for (int i = 0; i < m; i++) {
+            next[i] = fc[i] + sa.dotRow(i, mean, 0, identity);
+            if (Math.abs(next[i] - currentVal[i]) > epsilon) {
+                violated[count++] = i;
+            }
+        }
+        double[] t = mean;
+        mean = next;
+        next = t;
+        if (count == 0) {
+            return null;
+        }
+        int[] newSentIndex = new int[count];
+        for (int k = 0; k < count; k++) {
+            int i = violated[k];
+            newSentIndex[k] = i;
+            mean[i] = currentVal[i];
+        }
+        return newSentIndex;
+    }
+
+    @Override
+    public Matrix predict(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
+            Matrix sentValues) {
+        return matrixPredictors.get().predict(mean, cov, 0, sentIndex, predictIndex, sentValues,
+                false);
+    }
+
+    @Override
+    public void resetPrediction() {
+        matrixPredictors.get().cov = null;
+    }
+
+    @Override
+    public Kernels getKernels() {
+        return kernels;
+    }
+
+    /**
+     * @return null, the subset follows from the bound check
+     */
+    public SubsetSelector getSubsetSelector() {
+        return null;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+}
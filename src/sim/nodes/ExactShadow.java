@@ -0,0 +1,79 @@
+package sim.nodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import Jama.Matrix;
+
+/**
+ * An exact {@link MVNModel} in double precision that follows the
+ * transmission pattern of an approximate model, to measure how far the
+ * predictions of the approximation are from the exact ones.
+ */
+class ExactShadow {
+
+    private final MVNModel exact;
+    private final int m;
+
+    private long epochs = 0;
+    private long compared = 0;
+    private double worstDeviation = 0;
+    private double totalDeviation = 0;
+    /** epochs in which the exact model would have decided otherwise */
+    private long decisionChanges = 0;
+
+    ExactShadow(double epsilon, Matrix c, Matrix a, Matrix sigma, Kernels kernels) {
+        exact = new MVNModel(epsilon, c, a, sigma, kernels);
+        m = c.getRowDimension();
+    }
+
+    /**
+     * First epoch: all values are sent.
+     */
+    void start(double[] values) {
+        List<IndexValuePair> all = new ArrayList<IndexValuePair>(m);
+        for (int i = 0; i < m; i++) {
+            all.add(new IndexValuePair(i, values[i]));
+        }
+        exact.update(0, all);
+    }
+
+    /**
+     * Moves forward one epoch and compares the exact prediction of the
+     * current epoch with the given one.
+     */
+    void compare(double[] prediction, double[] currentVal, double epsilon, Kernels kernels) {
+        exact.forward();
+        double[] p = exact.predictLast();
+        for (int i = 0; i < m; i++) {
+            double d = Math.abs(prediction[i] - p[i]);
+            worstDeviation = Math.max(worstDeviation, d);
+            totalDeviation += d;
+        }
+        compared += m;
+        epochs++;
+        if (kernels.bounded(prediction, currentVal, m, epsilon)
+                != kernels.bounded(p, currentVal, m, epsilon)) {
+            decisionChanges++;
+        }
+    }
+
+    /**
+     * Records that node j has sent value in the current epoch.
+     */
+    void accept(int j, double value) {
+        exact.accept(j, value);
+    }
+
+    double getWorstDeviation() {
+        return worstDeviation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "epochs %d worst deviation %.6f mean deviation %.6f decision changes %d",
+                epochs, worstDeviation, compared == 0 ? 0 : totalDeviation / compared,
+                decisionChanges);
+    }
+}
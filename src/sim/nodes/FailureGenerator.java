@@ -2,6 +2,10 @@ package sim.nodes;
 
 public interface FailureGenerator {
 
-
-	public boolean isFailure();
+	/**
+	 * @return whether the given attempt, from 0, of a transmission at the
+	 *         given epoch fails; the next sample for generators that draw
+	 *         their samples one after the other
+	 */
+	public boolean isFailure(int epoch, int attempt);
 }
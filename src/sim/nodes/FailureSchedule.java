@@ -0,0 +1,198 @@
+package sim.nodes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Failure outcomes of all links of a run, drawn in bulk before it starts.
+ * <p>
+ * A link is the channel of a node to its head, or of a head to the base
+ * station. Its outcomes are a bitset over (epoch, attempt), attempts
+ * attempts per epoch, in which a set bit is a failed transmission; the
+ * configuration of a run may not try more often, and a lookup past the width
+ * fails. Runs that differ in the protocol only, e.g. in maxTry, the
+ * redundancies or the coding, see the same channel when they share a
+ * schedule, and the retry loops look up a bit where they drew a random
+ * number.
+ * <p>
+ * A schedule can be written to a binary file and read back.
+ */
+public class FailureSchedule {
+
+    /**
+     * Draws the outcomes of a link.
+     */
+    public interface Channel {
+        /**
+         * Sets the bits of the failed attempts, bit epoch * attempts + attempt.
+         */
+        public void fill(long[] bits, int epochs, int attempts, SplittableRandom stream);
+    }
+
+    private static final int MAGIC = 0x46534348; // FSCH
+
+    private final int epochs;
+    private final int attempts;
+    private final Map<Long, long[]> links = new LinkedHashMap<Long, long[]>();
+
+    public FailureSchedule(int epochs, int attempts) {
+        if (epochs <= 0 || attempts <= 0) {
+            throw new IllegalArgumentException("epochs and attempts should be positive");
+        }
+        this.epochs = epochs;
+        this.attempts = attempts;
+    }
+
+    /**
+     * Independent failures with a fixed probability.
+     */
+    public static Channel bernoulli(double loss) {
+        return (bits, epochs, attempts, stream) -> {
+            int n = epochs * attempts;
+            for (int k = 0; k < n; k++) {
+                if (stream.nextDouble() < loss) {
+                    bits[k >>> 6] |= 1L << k;
+                }
+            }
+        };
+    }
+
+    /**
+     * Gilbert-Elliott channel: a good and a bad state, with failure
+     * probabilities lossGood and lossBad, that the channel switches between
+     * from one epoch to the next. The attempts of an epoch share its state. The
+     * state is stationary with mean failure probability loss, and bad spells
+     * last burstLength epochs on average; lossGood 0 and lossBad 1 is the
+     * Gilbert channel.
+     */
+    public static Channel gilbert(double loss, double burstLength, double lossGood,
+            double lossBad) {
+        if (loss < lossGood || loss > lossBad || burstLength < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "no gilbert channel with loss %f, burst length %f, losses %f and %f", loss,
+                    burstLength, lossGood, lossBad));
+        }
+        double bad = lossBad > lossGood ? (loss - lossGood) / (lossBad - lossGood) : 0;
+        double badGood = 1 / burstLength;
+        double goodBad = bad < 1 ? Math.min(1, badGood * bad / (1 - bad)) : 1;
+        return (bits, epochs, attempts, stream) -> {
+            boolean inBad = stream.nextDouble() < bad;
+            for (int t = 0, k = 0; t < epochs; t++) {
+                double p = inBad ? lossBad : lossGood;
+                for (int a = 0; a < attempts; a++, k++) {
+                    if (stream.nextDouble() < p) {
+                        bits[k >>> 6] |= 1L << k;
+                    }
+                }
+                inBad = stream.nextDouble() < (inBad ? 1 - badGood : goodBad);
+            }
+        };
+    }
+
+    public int getEpochs() {
+        return epochs;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the failure samples of a link, drawn by the channel from the
+     *         stream if the schedule does not have the link yet
+     */
+    public synchronized FailureGenerator link(int tier, int cluster, int node, Channel channel,
+            SplittableRandom stream) {
+        long key = key(tier, cluster, node);
+        long[] bits = links.get(key);
+        if (bits == null) {
+            bits = new long[(int) (((long) epochs * attempts + 63) >>> 6)];
+            channel.fill(bits, epochs, attempts, stream);
+            links.put(key, bits);
+        }
+        return new Link(bits);
+    }
+
+    private static long key(int tier, int cluster, int node) {
+        return ((long) tier << 56) | ((long) cluster << 28) | node;
+    }
+
+    /**
+     * Writes the schedule to a binary file.
+     */
+    public synchronized void save(String file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(epochs);
+            out.writeInt(attempts);
+            out.writeInt(links.size());
+            for (Map.Entry<Long, long[]> link : links.entrySet()) {
+                out.writeLong(link.getKey());
+                for (long word : link.getValue()) {
+                    out.writeLong(word);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a schedule written by {@link #save}.
+     */
+    public static FailureSchedule load(String file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a failure schedule");
+            }
+            FailureSchedule schedule = new FailureSchedule(in.readInt(), in.readInt());
+            int count = in.readInt();
+            int words = (int) (((long) schedule.epochs * schedule.attempts + 63) >>> 6);
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                long[] bits = new long[words];
+                for (int k = 0; k < words; k++) {
+                    bits[k] = in.readLong();
+                }
+                schedule.links.put(key, bits);
+            }
+            return schedule;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Failure samples of one link, looked up by epoch and attempt.
+     */
+    private final class Link implements FailureGenerator {
+        private final long[] bits;
+
+        Link(long[] bits) {
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean isFailure(int epoch, int attempt) {
+            if (attempt >= attempts) {
+                throw new IllegalStateException(String.format(
+                        "attempt %d of epoch %d is beyond the %d attempts of the schedule",
+                        attempt, epoch, attempts));
+            }
+            long k = (long) epoch * attempts + attempt;
+            return (bits[(int) (k >>> 6)] >>> k & 1) != 0;
+        }
+    }
+}
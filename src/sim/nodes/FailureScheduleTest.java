@@ -0,0 +1,76 @@
+package sim.nodes;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+/**
+ * Runs a network with a failure schedule twice, first drawing the schedule
+ * and writing it to a file, then reading it back, and checks that both runs
+ * send the same. Run from the project directory.
+ */
+public class FailureScheduleTest {
+
+    private static Network createNetwork(String configFile, String scheduleFile, int maxTry) {
+        XMLConfiguration config = NetworkConfiguration.read(configFile);
+        config.setProperty("failureSchedule", "bernoulli");
+        config.setProperty("scheduleFile", scheduleFile);
+        config.setProperty("maxTry1", maxTry);
+        config.setProperty("maxTry2", maxTry);
+        return NetworkConfiguration.createNetwork(config, true,
+                new NetworkConfiguration.Shared());
+    }
+
+    //@Test
+    public void testSaveLoad(String configFile) throws IOException {
+        File file = File.createTempFile("schedule", ".bin");
+        file.delete();
+        try {
+            Network drawn = createNetwork(configFile, file.getPath(), 3);
+            if (!file.exists()) {
+                throw new IllegalStateException("schedule not written to " + file);
+            }
+            drawn.startSimulation();
+            Network loaded = createNetwork(configFile, file.getPath(), 3);
+            loaded.startSimulation();
+
+            SimulationContext a = drawn.getContext();
+            SimulationContext b = loaded.getContext();
+            if (a.getSentCount() != b.getSentCount() || a.getTxCount() != b.getTxCount()) {
+                throw new IllegalStateException(String.format(
+                        "drawn schedule sent %d in %d, loaded one %d in %d", a.getSentCount(),
+                        a.getTxCount(), b.getSentCount(), b.getTxCount()));
+            }
+            System.out.println(String.format("sent %d in %d transmissions both times",
+                    a.getSentCount(), a.getTxCount()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    //@Test
+    public void testTooManyAttempts(String configFile) {
+        for (int maxTry : new int[] { 0, 9 }) {
+            try {
+                createNetwork(configFile, null, maxTry);
+            } catch (IllegalArgumentException e) {
+                System.out.println("maxTry " + maxTry + ": " + e.getMessage());
+                continue;
+            }
+            throw new IllegalStateException("maxTry " + maxTry
+                    + " accepted with a schedule of 8 attempts");
+        }
+    }
+
+    /**
+     * @param args
+     *            the configuration, src/4_config.xml by default
+     */
+    public static void main(String[] args) throws IOException {
+        String configFile = args.length > 0 ? args[0] : "src/4_config.xml";
+        FailureScheduleTest test = new FailureScheduleTest();
+        test.testSaveLoad(configFile);
+        test.testTooManyAttempts(configFile);
+    }
+}
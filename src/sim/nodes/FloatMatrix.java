@@ -0,0 +1,116 @@
+package sim.nodes;
+
+import Jama.Matrix;
+
+/**
+ * A matrix stored row-major in single precision, which the single precision
+ * {@link MVNModel} hands to its subset selector in place of a double copy of
+ * its covariance. {@link MVNModel#predict} binds the floats directly.
+ * <p>
+ * Only the dimensions and the element accessors are backed by the floats:
+ * get, set, getMatrix(int[], int[]), copy and the array copies. getArray
+ * returns a copy as well, so writes to it do not reach the matrix. The
+ * arithmetic of {@link Matrix} sees an empty matrix and must not be used.
+ */
+public class FloatMatrix extends Matrix {
+    private static final long serialVersionUID = 1L;
+
+    private final int rows, cols;
+    private final float[] data;
+
+    public FloatMatrix(int rows, int cols) {
+        this(rows, cols, new float[rows * cols]);
+    }
+
+    private FloatMatrix(int rows, int cols, float[] data) {
+        super(0, 0);
+        this.rows = rows;
+        this.cols = cols;
+        this.data = data;
+    }
+
+    /**
+     * @return the elements, row-major
+     */
+    public float[] getFloatArray() {
+        return data;
+    }
+
+    @Override
+    public int getRowDimension() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return cols;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return data[i * cols + j];
+    }
+
+    @Override
+    public void set(int i, int j, double v) {
+        data[i * cols + j] = (float) v;
+    }
+
+    @Override
+    public Matrix getMatrix(int[] r, int[] c) {
+        Matrix x = new Matrix(r.length, c.length);
+        double[][] d = x.getArray();
+        for (int i = 0; i < r.length; i++) {
+            for (int j = 0; j < c.length; j++) {
+                d[i][j] = data[r[i] * cols + c[j]];
+            }
+        }
+        return x;
+    }
+
+    @Override
+    public Matrix copy() {
+        return new FloatMatrix(rows, cols, data.clone());
+    }
+
+    @Override
+    public Object clone() {
+        return copy();
+    }
+
+    @Override
+    public double[][] getArray() {
+        return getArrayCopy();
+    }
+
+    @Override
+    public double[][] getArrayCopy() {
+        double[][] d = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                d[i][j] = data[i * cols + j];
+            }
+        }
+        return d;
+    }
+
+    @Override
+    public double[] getRowPackedCopy() {
+        double[] d = new double[rows * cols];
+        for (int i = 0; i < d.length; i++) {
+            d[i] = data[i];
+        }
+        return d;
+    }
+
+    @Override
+    public double[] getColumnPackedCopy() {
+        double[] d = new double[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                d[i + j * rows] = data[i * cols + j];
+            }
+        }
+        return d;
+    }
+}
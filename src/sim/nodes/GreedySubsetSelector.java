@@ -5,9 +5,36 @@ import Jama.Matrix;
 public class GreedySubsetSelector implements SubsetSelector {
 
     Model model;
+    /** score candidates with a bordered inverse instead of model.predict */
+    boolean bordered;
+    /** clusters of at least this size score candidates in parallel */
+    int parallelThreshold = CandidateEvaluator.DEFAULT_THRESHOLD;
+    private CandidateEvaluator evaluator;
 
     public GreedySubsetSelector(Model m) {
+        this(m, false);
+    }
+
+    /**
+     * @param m
+     *            the model used for predictions
+     * @param bordered
+     *            if true, all candidates of a round are scored against one
+     *            inverse of the conditioning block; requires mean and cov to be
+     *            in covariance form
+     */
+    public GreedySubsetSelector(Model m, boolean bordered) {
         model = m;
+        this.bordered = bordered;
+        evaluator = new CandidateEvaluator(m);
+    }
+
+    /**
+     * Clusters of at least this many nodes score the candidates of a round in
+     * parallel; the bordered mode is always sequential.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
     }
 
     /**
@@ -27,6 +54,9 @@ public class GreedySubsetSelector implements SubsetSelector {
     @Override
     public int[] select(Matrix mean, Matrix cov, Matrix sentValues,
             Matrix currentValues, double e) {
+        if (bordered) {
+            return selectBordered(mean, cov, sentValues, currentValues, e);
+        }
         int subsetSize = 0;
         int unboundedSize = 1;
         int m = mean.getRowDimension() / 2;
@@ -34,37 +64,54 @@ public class GreedySubsetSelector implements SubsetSelector {
         int[] predictIndex = new int[m];
         Helper.reset(sentIndex, 0);
         Helper.reset(predictIndex, m);
+        boolean parallel = m >= parallelThreshold;
+        int[][] add = parallel ? new int[m][] : null;
+        int[] counts = parallel ? new int[m] : null;
 
         while (unboundedSize != 0) {
             int min = Integer.MAX_VALUE;
             int minIndex = 0;
-            for (int i = 0; i < predictIndex.length; i++) {
-                if (predictIndex[i] == -1) {
-                    continue;
-                    // backup
+            if (parallel) {
+                for (int i = 0; i < m; i++) {
+                    add[i] = predictIndex[i] == -1 ? null : new int[] { i };
                 }
-                int tmpIndex = sentIndex[i];
-                double tmpValue = sentValues.get(i, 0);
-
-                sentIndex[i] = predictIndex[i];
-                predictIndex[i] = -1; // needn't predict this one
-
-                sentValues.set(i, 0, currentValues.get(i, 0));
-                // we don't kick the ith component out of predictIndex cause
-                // that doesn't affect prediction for others
-                Matrix p = model.predict(mean, cov, sentIndex, predictIndex,
-                        sentValues);
-                int count = Helper.countUnbounded(p, currentValues,
-                        predictIndex, e);
-                if (count < min) {
-                    min = count;
-                    minIndex = i;
+                evaluator.count(mean, cov, sentIndex, predictIndex, sentValues,
+                        currentValues, e, add, counts);
+                for (int i = 0; i < m; i++) {
+                    if (add[i] != null && counts[i] < min) {
+                        min = counts[i];
+                        minIndex = i;
+                    }
                 }
+            } else {
+                for (int i = 0; i < predictIndex.length; i++) {
+                    if (predictIndex[i] == -1) {
+                        continue;
+                        // backup
+                    }
+                    int tmpIndex = sentIndex[i];
+                    double tmpValue = sentValues.get(i, 0);
+
+                    sentIndex[i] = predictIndex[i];
+                    predictIndex[i] = -1; // needn't predict this one
+
+                    sentValues.set(i, 0, currentValues.get(i, 0));
+                    // we don't kick the ith component out of predictIndex cause
+                    // that doesn't affect prediction for others
+                    Matrix p = model.predict(mean, cov, sentIndex, predictIndex,
+                            sentValues);
+                    int count = Helper.countUnbounded(model.getKernels(), p, currentValues,
+                            predictIndex, e);
+                    if (count < min) {
+                        min = count;
+                        minIndex = i;
+                    }
 
-                // restore
-                predictIndex[i] = sentIndex[i];
-                sentIndex[i] = tmpIndex;
-                sentValues.set(i, 0, tmpValue);
+                    // restore
+                    predictIndex[i] = sentIndex[i];
+                    sentIndex[i] = tmpIndex;
+                    sentValues.set(i, 0, tmpValue);
+                }
             }
             unboundedSize = min;
             // update indices and values
@@ -83,4 +130,159 @@ public class GreedySubsetSelector implements SubsetSelector {
         }
         return result;
     }
+
+    /**
+     * Greedy selection with the same result as the default mode. Each round
+     * keeps K = cov(S, S)^-1 for the current conditioning set S. Trying
+     * candidate i replaces its old value in S by its current value, which is a
+     * downdate of K (dropping slot i) followed by bordering it with the new
+     * variable, both by Schur complement identities. A candidate then costs
+     * O(m^2) instead of a full O(m^3) prediction.
+     */
+    private int[] selectBordered(Matrix mean, Matrix cov, Matrix sentValues,
+            Matrix currentValues, double e) {
+        int m = mean.getRowDimension() / 2;
+        // read through get, so that a FloatMatrix is not copied to doubles
+        Matrix c = cov;
+        double[] mu = mean.getColumnPackedCopy();
+        double[] cur = currentValues.getColumnPackedCopy();
+        int[] sentIndex = new int[m];
+        Helper.reset(sentIndex, 0);
+        boolean[] selected = new boolean[m];
+
+        double[][] k = cov.getMatrix(sentIndex, sentIndex).inverse().getArray();
+        double[] r = new double[m]; // conditioning values minus their mean
+        for (int j = 0; j < m; j++) {
+            r[j] = sentValues.get(j, 0) - mu[j];
+        }
+        double[] g = new double[m];
+        double[] w = new double[m];
+        double[] u = new double[m];
+
+        int subsetSize = 0;
+        int unboundedSize = 1;
+        while (unboundedSize != 0) {
+            // g = K r
+            for (int j = 0; j < m; j++) {
+                double v = 0;
+                for (int l = 0; l < m; l++) {
+                    v += k[j][l] * r[l];
+                }
+                g[j] = v;
+            }
+
+            int min = Integer.MAX_VALUE;
+            int minIndex = 0;
+            for (int i = 0; i < m; i++) {
+                if (selected[i]) {
+                    continue;
+                }
+                double s = border(c, k, sentIndex, i, m + i, u);
+                // w = cov(S_i, S_i)^-1 r_i, where r_i has the current value at slot i
+                double kii = k[i][i];
+                double gi = g[i] - kii * r[i];
+                double ur = 0;
+                for (int j = 0; j < m; j++) {
+                    if (j != i) {
+                        w[j] = g[j] - k[j][i] * r[i] - k[j][i] * gi / kii;
+                        ur += u[j] * r[j];
+                    }
+                }
+                double wi = (cur[i] - mu[m + i] - ur) / s;
+                for (int j = 0; j < m; j++) {
+                    w[j] -= u[j] * wi;
+                }
+                w[i] = wi;
+
+                int count = 0;
+                for (int p = 0; p < m; p++) {
+                    if (selected[p] || p == i) {
+                        continue;
+                    }
+                    double v = mu[m + p];
+                    for (int j = 0; j < m; j++) {
+                        v += c.get(m + p, j == i ? m + i : sentIndex[j]) * w[j];
+                    }
+                    if (Math.abs(v - cur[p]) > e) {
+                        count++;
+                    }
+                }
+                if (count < min) {
+                    min = count;
+                    minIndex = i;
+                }
+            }
+            unboundedSize = min;
+
+            // K becomes the inverse for S with minIndex replaced
+            int i = minIndex;
+            double s = border(c, k, sentIndex, i, m + i, u);
+            double kii = k[i][i];
+            for (int j = 0; j < m; j++) {
+                if (j == i) {
+                    continue;
+                }
+                for (int l = 0; l < m; l++) {
+                    if (l != i) {
+                        k[j][l] += u[j] * u[l] / s - k[j][i] * k[i][l] / kii;
+                    }
+                }
+            }
+            for (int j = 0; j < m; j++) {
+                if (j != i) {
+                    k[j][i] = k[i][j] = -u[j] / s;
+                }
+            }
+            k[i][i] = 1 / s;
+
+            // update indices and values
+            selected[i] = true;
+            sentIndex[i] = m + i;
+            r[i] = cur[i] - mu[m + i];
+            sentValues.set(i, 0, cur[i]);
+            subsetSize++;
+        }
+
+        int[] result = new int[subsetSize];
+        int n = 0;
+        for (int i = 0; i < m; i++) {
+            if (selected[i]) {
+                result[n++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes u = K' b, where K' is K with slot i dropped (downdated) and b
+     * is the covariance between the remaining conditioning variables and the
+     * new variable v. Entry i of u is left 0.
+     *
+     * @return the Schur complement cov(v, v) - b' K' b
+     */
+    private static double border(Matrix c, double[][] k, int[] sentIndex,
+            int i, int v, double[] u) {
+        int m = sentIndex.length;
+        // u = K b with b_i = 0, then downdate
+        for (int j = 0; j < m; j++) {
+            double x = 0;
+            double[] kj = k[j];
+            for (int l = 0; l < m; l++) {
+                if (l != i) {
+                    x += kj[l] * c.get(v, sentIndex[l]);
+                }
+            }
+            u[j] = x;
+        }
+        double ui = u[i] / k[i][i];
+        double s = c.get(v, v);
+        for (int j = 0; j < m; j++) {
+            if (j != i) {
+                u[j] -= k[j][i] * ui;
+                s -= c.get(v, sentIndex[j]) * u[j];
+            }
+        }
+        u[i] = 0;
+        return s;
+    }
 }
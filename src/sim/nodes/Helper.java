@@ -14,21 +14,32 @@ public class Helper {
 		return buf.toString();
 	}
 	
-    public static int countUnbounded(Matrix a, Matrix b, int[] predictIndex, double e) {
-        int count = 0;
+    /** packed predictions and values of countUnbounded, per thread */
+    private static final ThreadLocal<double[][]> unboundedScratch = ThreadLocal
+            .withInitial(() -> new double[2][0]);
+
+    public static int countUnbounded(Kernels kernels, Matrix a, Matrix b, int[] predictIndex,
+            double e) {
         int n = predictIndex.length;
+        double[][] scratch = unboundedScratch.get();
+        if (scratch[0].length < n) {
+            scratch[0] = new double[n];
+            scratch[1] = new double[n];
+        }
+        double[] x = scratch[0];
+        double[] y = scratch[1];
+        double[][] p = a.getArray();
+        double[][] v = b.getArray();
         int i = 0,  j = 0;
         for (; j < n; j++) {
             // skip unused ones
             if (predictIndex[j] == -1) {
                 continue;
             }
-            if (Math.abs(a.get(i, 0) - b.get(j, 0)) > e) {
-                count++;
-            }
-            i++;
+            x[i] = p[i][0];
+            y[i++] = v[j][0];
         }
-        return count;
+        return kernels.countUnbounded(x, y, i, e);
     }
 
     public static void reset(int[] d, int start) {
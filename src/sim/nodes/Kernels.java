@@ -0,0 +1,166 @@
+package sim.nodes;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Dense vector kernels of the MVN hot path: dot products, axpy, triangular
+ * solves with a row-major Cholesky factor and the infinity-norm bound check,
+ * also used by the suppression test of {@link NodeTier}.
+ * <p>
+ * This class is the scalar implementation. Its loops run in the same order as
+ * the code they replace, so results agree bitwise with it. {@link #forName}
+ * can also load VectorKernels, an implementation on the incubating JDK Vector
+ * API, which is kept in the separate source folder src-vector because it
+ * needs the jdk.incubator.vector module to compile and to run. The elementwise
+ * kernels (axpy and the bound checks) of both agree bitwise; the reductions
+ * of VectorKernels sum in a different order, so predictions may differ in the
+ * last bits.
+ */
+public class Kernels {
+    private static Logger logger = Logger.getLogger(Kernels.class);
+
+    public static final Kernels SCALAR = new Kernels();
+
+    private static final String VECTOR_CLASS = "sim.nodes.VectorKernels";
+
+    protected Kernels() {
+    }
+
+    /**
+     * @param name
+     *            scalar or vector
+     * @return the kernels of that name; the scalar ones if the vector ones are
+     *         not available in this JVM
+     */
+    public static Kernels forName(String name) {
+        if ("scalar".equals(name)) {
+            return SCALAR;
+        }
+        if (!"vector".equals(name)) {
+            throw new IllegalArgumentException("unknown kernels " + name);
+        }
+        try {
+            Kernels k = (Kernels) Class.forName(VECTOR_CLASS).getDeclaredConstructor()
+                    .newInstance();
+            logger.info("using " + k);
+            return k;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // class not compiled, or the JVM runs without jdk.incubator.vector
+            logger.warn("vector kernels not available, using scalar ones: " + e);
+            return SCALAR;
+        }
+    }
+
+    /**
+     * @return s + sum_i x[xo + i] y[yo + i]
+     */
+    public double dot(double s, double[] x, int xo, double[] y, int yo, int n) {
+        for (int i = 0; i < n; i++) {
+            s += x[xo + i] * y[yo + i];
+        }
+        return s;
+    }
+
+    /**
+     * @return s - sum_i x[xo + i] y[yo + i]
+     */
+    public double residual(double s, double[] x, int xo, double[] y, int yo, int n) {
+        for (int i = 0; i < n; i++) {
+            s -= x[xo + i] * y[yo + i];
+        }
+        return s;
+    }
+
+    /**
+     * @return s + sum_i x[xo + index[i]] y[i]
+     */
+    public double dotGather(double s, double[] x, int xo, int[] index, double[] y, int n) {
+        for (int i = 0; i < n; i++) {
+            s += x[xo + index[i]] * y[i];
+        }
+        return s;
+    }
+
+    /**
+     * y[yo + i] += a x[xo + i]
+     */
+    public void axpy(double a, double[] x, int xo, double[] y, int yo, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yo + i] += a * x[xo + i];
+        }
+    }
+
+    /**
+     * Solves L y = b by forward substitution; y may be b.
+     *
+     * @param l
+     *            lower triangular, row-major with row stride ld
+     */
+    public void solveLower(double[] l, int ld, int k, double[] b, double[] y) {
+        for (int p = 0; p < k; p++) {
+            int lp = p * ld;
+            y[p] = residual(b[p], l, lp, y, 0, p) / l[lp + p];
+        }
+    }
+
+    /**
+     * Solves L' y = b in place by back substitution.
+     *
+     * @param l
+     *            lower triangular, row-major with row stride ld
+     */
+    public void solveLowerTransposed(double[] l, int ld, int k, double[] y) {
+        for (int p = k - 1; p >= 0; p--) {
+            double v = y[p];
+            for (int q = p + 1; q < k; q++) {
+                v -= l[q * ld + p] * y[q];
+            }
+            y[p] = v / l[p * ld + p];
+        }
+    }
+
+    /**
+     * @return true if |a[i] - b[i]| <= e for all i < n
+     */
+    public boolean bounded(double[] a, double[] b, int n, double e) {
+        for (int i = 0; i < n; i++) {
+            if (Math.abs(a[i] - b[i]) > e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of i < n with |a[i] - b[i]| > e
+     */
+    public int countUnbounded(double[] a, double[] b, int n, double e) {
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (Math.abs(a[i] - b[i]) > e) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stores the i < n with |a[i] - b[i]| > e in index, in increasing order.
+     *
+     * @return their number
+     */
+    public int unbounded(double[] a, double[] b, int n, double e, int[] index) {
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (Math.abs(a[i] - b[i]) > e) {
+                index[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar kernels";
+    }
+}
@@ -0,0 +1,173 @@
+package sim.nodes;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+import Jama.Matrix;
+
+/**
+ * Greedy subset selection with the result of {@link GreedySubsetSelector},
+ * in the style of lazy greedy.
+ * <p>
+ * Every round the exact greedy scores each remaining candidate by the number
+ * of unbounded predictions left when it is sent, and takes the lowest count,
+ * the lowest index on ties. The counts are not submodular: a candidate's
+ * count can drop when another one is sent, so a stale count is no bound and
+ * skipping a candidate on its stale score could change the subset. Here the
+ * stale counts of the last round only order the candidates in a priority
+ * queue, most promising first. Once a candidate leaves no prediction
+ * unbounded it is the best possible one, and only the unscored candidates
+ * with a lower index still need to be scored, because greedy would prefer
+ * them on a tie. All others are skipped, which ends the selection.
+ */
+public class LazyGreedySubsetSelector implements SubsetSelector {
+    private static Logger logger = Logger.getLogger(LazyGreedySubsetSelector.class);
+
+    Model model;
+
+    // statistics
+    private long selections = 0;
+    /** predict calls made, and made by the exact greedy for the same rounds */
+    private long predictCalls = 0;
+    private long greedyCalls = 0;
+
+    private static class Candidate {
+        int index;
+        /** unbounded count of the last round the candidate was scored in */
+        int count;
+
+        Candidate(int index) {
+            this.index = index;
+        }
+    }
+
+    private static final Comparator<Candidate> ORDER = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            if (o1.count != o2.count) {
+                return o1.count < o2.count ? -1 : 1;
+            }
+            return o1.index - o2.index;
+        }
+    };
+
+    public LazyGreedySubsetSelector(Model m) {
+        model = m;
+    }
+
+    @Override
+    public int[] select(Matrix mean, Matrix cov, Matrix sentValues,
+            Matrix currentValues, double e) {
+        int m = mean.getRowDimension() / 2;
+        int[] sentIndex = new int[m];
+        int[] predictIndex = new int[m];
+        Helper.reset(sentIndex, 0);
+        Helper.reset(predictIndex, m);
+
+        long calls = 0;
+        long exact = 0;
+        // no stale counts yet: index order
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(m, ORDER);
+        for (int i = 0; i < m; i++) {
+            queue.add(new Candidate(i));
+        }
+        // candidates of the current round, scored or skipped
+        Candidate[] scored = new Candidate[m];
+
+        int subsetSize = 0;
+        int unbounded = m;
+        while (unbounded != 0) {
+            exact += queue.size();
+            int n = 0;
+            Candidate best = null;
+            while (!queue.isEmpty()) {
+                Candidate c = queue.poll();
+                scored[n++] = c;
+                if (best != null && best.count == 0 && c.index > best.index) {
+                    // cannot beat best, nor tie with it at a lower index
+                    continue;
+                }
+                c.count = evaluate(c.index, mean, cov, sentIndex, predictIndex, sentValues,
+                        currentValues, e);
+                calls++;
+                if (best == null || c.count < best.count
+                        || c.count == best.count && c.index < best.index) {
+                    best = c;
+                }
+            }
+
+            int i = best.index;
+            unbounded = best.count;
+            sentIndex[i] = predictIndex[i];
+            sentValues.set(i, 0, currentValues.get(i, 0));
+            predictIndex[i] = -1;
+            subsetSize++;
+            for (int k = 0; k < n; k++) {
+                if (scored[k] != best) {
+                    queue.add(scored[k]);
+                }
+            }
+        }
+
+        selections++;
+        predictCalls += calls;
+        greedyCalls += exact;
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("lazy greedy subset %d predict calls %d saved %d",
+                    subsetSize, calls, exact - calls));
+        }
+
+        int[] result = new int[subsetSize];
+        int k = 0;
+        for (int j = 0; j < m; j++) {
+            if (predictIndex[j] == -1) {
+                result[k++] = j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of unbounded predictions when candidate i is sent in
+     *         addition to the current subset
+     */
+    private int evaluate(int i, Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
+            Matrix sentValues, Matrix currentValues, double e) {
+        int tmpIndex = sentIndex[i];
+        double tmpValue = sentValues.get(i, 0);
+        sentIndex[i] = predictIndex[i];
+        predictIndex[i] = -1;
+        sentValues.set(i, 0, currentValues.get(i, 0));
+
+        Matrix p = model.predict(mean, cov, sentIndex, predictIndex, sentValues);
+        int count = Helper.countUnbounded(model.getKernels(), p, currentValues, predictIndex, e);
+
+        predictIndex[i] = sentIndex[i];
+        sentIndex[i] = tmpIndex;
+        sentValues.set(i, 0, tmpValue);
+        return count;
+    }
+
+    /**
+     * @return average number of predict calls saved per selection, compared
+     *         with {@link GreedySubsetSelector}
+     */
+    public double getSavedPerSelection() {
+        return selections == 0 ? 0 : ((double) (greedyCalls - predictCalls)) / selections;
+    }
+
+    @Override
+    public String report() {
+        return "lazy greedy " + this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "selections %d predict calls %d greedy %d saved %d (%.2f per selection)",
+                selections, predictCalls, greedyCalls, greedyCalls - predictCalls,
+                getSavedPerSelection());
+    }
+}
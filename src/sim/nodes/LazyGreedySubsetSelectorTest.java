@@ -0,0 +1,88 @@
+package sim.nodes;
+
+import java.util.Arrays;
+
+import Jama.Matrix;
+
+/**
+ * Runs {@link LazyGreedySubsetSelector} and {@link GreedySubsetSelector} on
+ * the selections of an MVN model over the Sonoma readings and checks that
+ * they pick the same subsets. Run from the project directory.
+ */
+public class LazyGreedySubsetSelectorTest {
+
+    private static final double[] C = { 1.3188822503175, -0.45836109118531, 0.594501291449568,
+            1.30940120254122 };
+    private static final double[] A = { 0.857379859243077, 0.0810403285199821,
+            0.0370643384831153, 0.0149160830623662, 0.336180820695923, 0.760384015951383,
+            0.248684181395436, 0.323468681513343, -0.199705022825537, -0.206054492287675,
+            0.27718199310701, -0.277992277281312, -0.0138576714615698, 0.359974202167899,
+            0.413105624877879, 0.913916013894441 };
+    private static final double[] SIGMA = { 4.29086890560834, 2.9335973753836,
+            2.65021783538781, 2.54863774374370, 2.9335973753836, 3.69766099962836,
+            3.42127341763865, 3.3343650059466, 2.65021783538781, 3.42127341763865,
+            3.75386943746178, 3.70264312499041, 2.54863774374370, 3.3343650059466,
+            3.70264312499041, 3.88588993663311 };
+
+    /**
+     * Selects with both selectors and fails on the first difference.
+     */
+    private static class Comparing implements SubsetSelector {
+        final GreedySubsetSelector greedy;
+        final LazyGreedySubsetSelector lazy;
+        int selections = 0;
+
+        Comparing(Model model) {
+            greedy = new GreedySubsetSelector(model);
+            lazy = new LazyGreedySubsetSelector(model);
+        }
+
+        @Override
+        public int[] select(Matrix mean, Matrix cov, Matrix sentValues, Matrix currentValues,
+                double e) {
+            int[] expected = greedy.select(mean, cov, sentValues.copy(), currentValues, e);
+            int[] actual = lazy.select(mean, cov, sentValues.copy(), currentValues, e);
+            if (!Arrays.equals(expected, actual)) {
+                throw new IllegalStateException(String.format(
+                        "selection %d: greedy %s lazy %s", selections,
+                        Arrays.toString(expected), Arrays.toString(actual)));
+            }
+            selections++;
+            return expected;
+        }
+    }
+
+    //@Test
+    public void testSameSubsets(String dataFile, double epsilon) {
+        int m = C.length;
+        int epochs = 1000;
+        DataProvider data = new DataProvider(m, epochs);
+        data.read(dataFile);
+        int[] nodes = { 0, 1, 2, 3 };
+
+        MVNModel model = new MVNModel(epsilon, new Matrix(C, m), new Matrix(A, m),
+                new Matrix(SIGMA, m));
+        Comparing selector = new Comparing(model);
+        model.setSubsetSelector(selector);
+        for (int t = 0; t < epochs; t++) {
+            model.send(data.getData(nodes, t));
+        }
+        if (selector.selections == 0) {
+            throw new IllegalStateException("no selections at epsilon " + epsilon);
+        }
+        System.out.println(String.format("epsilon %.2f: %d selections, lazy greedy %s",
+                epsilon, selector.selections, selector.lazy));
+    }
+
+    /**
+     * @param args
+     *            the Sonoma readings, 20-55-111-107.txt by default
+     */
+    public static void main(String[] args) {
+        String dataFile = args.length > 0 ? args[0] : "20-55-111-107.txt";
+        LazyGreedySubsetSelectorTest test = new LazyGreedySubsetSelectorTest();
+        for (double epsilon : new double[] { 0.25, 0.5, 1.5, 3 }) {
+            test.testSameSubsets(dataFile, epsilon);
+        }
+    }
+}
@@ -6,10 +6,25 @@ import java.util.Comparator;
 import Jama.Matrix;
 
 public class LinearSubsetSelector implements SubsetSelector {
+    /** prefixes scored together in parallel mode */
+    static final int BATCH = 4 * CandidateEvaluator.CHUNK;
+
     Model model;
+    /** clusters of at least this size score prefixes in parallel */
+    int parallelThreshold = CandidateEvaluator.DEFAULT_THRESHOLD;
+    private CandidateEvaluator evaluator;
 
     public LinearSubsetSelector(Model m) {
         model = m;
+        evaluator = new CandidateEvaluator(m);
+    }
+
+    /**
+     * Clusters of at least this many nodes score the growing prefixes of the
+     * sorted nodes in parallel, a batch at a time, instead of one by one.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
     }
 
     @Override
@@ -42,6 +57,11 @@ public class LinearSubsetSelector implements SubsetSelector {
             }
         });
 
+        if (m >= parallelThreshold) {
+            return selectParallel(mean, cov, sentIndex, predictIndex, sentValues,
+                    currentValues, e, entries);
+        }
+
         for (int i = m - 1; i > -1; i--) {
             int toSend = entries[i].key;
             sentIndex[toSend] = predictIndex[toSend];
@@ -49,7 +69,7 @@ public class LinearSubsetSelector implements SubsetSelector {
             sentValues.set(toSend, 0, currentValues.get(toSend, 0));
             p = model.predict(mean, cov, sentIndex, predictIndex, sentValues);
             int count = Helper
-                    .countUnbounded(p, currentValues, predictIndex, e);
+                    .countUnbounded(model.getKernels(), p, currentValues, predictIndex, e);
             subsetSize++;
             if (count == 0)
                 break;
@@ -65,6 +85,46 @@ public class LinearSubsetSelector implements SubsetSelector {
         return result;
     }
     
+    /**
+     * Same result as the sequential loop: the shortest prefix of the nodes in
+     * decreasing error order that bounds all other predictions. Prefixes are
+     * scored a batch at a time, so a few beyond the result may be scored in
+     * vain.
+     */
+    private int[] selectParallel(Matrix mean, Matrix cov, int[] sentIndex,
+            int[] predictIndex, Matrix sentValues, Matrix currentValues, double e,
+            Entry[] entries) {
+        int m = entries.length;
+        int subsetSize = m;
+        int[] order = new int[m];
+        for (int i = 0; i < m; i++) {
+            order[i] = entries[m - 1 - i].key;
+        }
+        for (int from = 0; from < m && subsetSize == m; from += BATCH) {
+            int n = Math.min(BATCH, m - from);
+            int[][] add = new int[n][];
+            int[] counts = new int[n];
+            for (int c = 0; c < n; c++) {
+                add[c] = Arrays.copyOf(order, from + c + 1);
+            }
+            evaluator.count(mean, cov, sentIndex, predictIndex, sentValues, currentValues,
+                    e, add, counts);
+            for (int c = 0; c < n; c++) {
+                if (counts[c] == 0) {
+                    subsetSize = from + c + 1;
+                    break;
+                }
+            }
+        }
+
+        int[] result = Arrays.copyOf(order, subsetSize);
+        Arrays.sort(result);
+        for (int i : result) {
+            sentValues.set(i, 0, currentValues.get(i, 0));
+        }
+        return result;
+    }
+
     class Entry {
         int key;
         double val;
@@ -0,0 +1,500 @@
+package sim.nodes;
+
+import java.util.Arrays;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Approximation of {@link MVNModel} for large clusters: the covariance over
+ * the last sent values and the last epoch is kept as a rank-k factor plus a
+ * diagonal, cov ~ U U' + D.
+ * <p>
+ * {@link #forward()} propagates the structure. The new epoch c + a x + w gets
+ * the factor rows a U(last) and, for the noise, the rows of a rank-k
+ * approximation sigma ~ V V' + D_sigma that is computed once. Together with
+ * the factor rows of the sent values this is an exact factor G of width 2k,
+ * which is cut back to rank k by an eigen decomposition of the 2k x 2k Gram
+ * matrix G'G. Whatever is cut off, and the diagonal of a D(last) a', goes to
+ * the diagonal, so variances are kept and covariances are approximated. With
+ * a sparse a the step costs O(m k^2).
+ * <p>
+ * Conditioning uses the Woodbury identity: with r = x(S) - mean(S),
+ * A = I + U(S)' D(S)^-1 U(S) and b = U(S)' D(S)^-1 r, the prediction is
+ * mean(P) + U(P) A^-1 b, i.e. one k x k solve.
+ * <p>
+ * {@link #predict} and the subset selectors get the factor [U D] in place of
+ * cov. With a shadow (see {@link #setShadow}) an exact {@link MVNModel}
+ * follows the same transmission pattern, and {@link #toString()} reports how
+ * far the predictions were from the exact ones, to choose k against epsilon.
+ */
+public class LowRankModel implements Model {
+
+    /** number of nodes */
+    public int m;
+
+    public Matrix c;
+    public Matrix a;
+    public Matrix sigma;
+    double epsilon;
+    /** rank of the factor */
+    final int k;
+    /** last sent value for each node */
+    private double[] sentValues;
+
+    /**
+     * mean and factor over 2m fixed slots like in {@link MVNModel}; a row of
+     * factor holds the k entries of U and then the one of D
+     */
+    double[] mean, factor;
+    /** row stride of factor, k + 1 */
+    private int stride;
+    /** a and its elementwise square, see {@link SparseMatrix} */
+    private SparseMatrix sa, sa2;
+    private double[] fc;
+    /** rank-k factor of sigma, row-major, and the rest of its diagonal */
+    private double[] v, dsigma;
+    /** smallest diagonal entry, keeps D invertible */
+    private double floor;
+    // scratch
+    private double[] g, gram, qk;
+    private double[] au, lastMean, lastD, newD;
+    private double[] prediction;
+    private boolean[] used;
+    private int[] nextIndex, identity, rows;
+
+    /** slot of the last sent value of each node */
+    int[] sentIndex;
+    /** slot of the last epoch of each node */
+    int[] lastIndex;
+    int ts = 0;
+
+    /**
+     * Scratch space of the Woodbury solve. The model has its own; the public
+     * {@link #predict} uses one per thread, so that selectors may call it
+     * concurrently.
+     */
+    private static final class Workspace {
+        final double[] a, b, l, y;
+        /** factor matrix of the last predict call and its row-major copy */
+        Matrix factor;
+        double[] flatFactor;
+
+        Workspace(int k) {
+            a = new double[k * k];
+            b = new double[k];
+            l = new double[k * k];
+            y = new double[k];
+        }
+    }
+
+    private final Workspace work;
+    private final ThreadLocal<Workspace> workspaces;
+
+    private final Kernels kernels;
+    private SubsetSelector subsetSelector;
+
+    /** exact model on the same transmission pattern; may be null */
+    private ExactShadow shadow;
+
+    /**
+     * @param rank
+     *            rank of the covariance factor; at most 2m is used, which
+     *            is exact up to the off-diagonals of a D a'
+     */
+    public LowRankModel(double epsilon, Matrix c, Matrix a, Matrix sigma, int rank) {
+        this(epsilon, c, a, sigma, rank, Kernels.SCALAR);
+    }
+
+    public LowRankModel(double epsilon, Matrix c, Matrix a, Matrix sigma, int rank,
+            Kernels kernels) {
+        this.c = c;
+        this.a = a;
+        this.sigma = sigma;
+        m = c.getRowDimension();
+        this.epsilon = epsilon;
+        k = Math.max(1, Math.min(rank, 2 * m));
+        this.kernels = kernels;
+        work = new Workspace(k);
+        workspaces = ThreadLocal.withInitial(() -> new Workspace(k));
+        subsetSelector = new GreedySubsetSelector(this);
+    }
+
+    /**
+     * Allocates the model state for the first epoch: mean 0 and cov the
+     * approximation of sigma, all nodes sent.
+     */
+    private void initState() {
+        final int n = 2 * m;
+        stride = k + 1;
+        mean = new double[n];
+        factor = new double[n * stride];
+        sa = SparseMatrix.of(a, kernels);
+        sa2 = SparseMatrix.of(a.arrayTimes(a), kernels);
+        fc = c.getColumnPackedCopy();
+
+        // sigma ~ V V' + D_sigma from its largest eigenvalues
+        EigenvalueDecomposition eig = new EigenvalueDecomposition(
+                sigma.plus(sigma.transpose()).timesEquals(0.5));
+        double[] lambda = eig.getRealEigenvalues();
+        double[][] q = eig.getV().getArray();
+        v = new double[m * k];
+        dsigma = new double[m];
+        double trace = 0;
+        for (int i = 0; i < m; i++) {
+            dsigma[i] = sigma.get(i, i);
+            trace += dsigma[i];
+        }
+        // the eigenvalues are in ascending order
+        for (int l = 0; l < Math.min(k, m); l++) {
+            int e = m - 1 - l;
+            double s = Math.sqrt(Math.max(lambda[e], 0));
+            for (int i = 0; i < m; i++) {
+                double x = q[i][e] * s;
+                v[i * k + l] = x;
+                dsigma[i] -= x * x;
+            }
+        }
+        floor = 1e-9 * trace / m;
+        for (int i = 0; i < m; i++) {
+            dsigma[i] = Math.max(dsigma[i], floor);
+            System.arraycopy(v, i * k, factor, i * stride, k);
+            factor[i * stride + k] = dsigma[i];
+        }
+
+        g = new double[n * 2 * k];
+        gram = new double[4 * k * k];
+        qk = new double[2 * k * k];
+        au = new double[m * k];
+        lastMean = new double[m];
+        lastD = new double[m];
+        newD = new double[m];
+        prediction = new double[m];
+        used = new boolean[n];
+        nextIndex = new int[m];
+        identity = new int[m];
+        rows = new int[n];
+        Helper.reset(identity, 0);
+
+        sentIndex = new int[m];
+        lastIndex = new int[m];
+        Helper.reset(sentIndex, 0);
+        Helper.reset(lastIndex, 0);
+        sentValues = new double[m];
+    }
+
+    /**
+     * Move forward one epoch. The new epoch is written to the m slots that do
+     * not hold sent values, and the factor is truncated back to rank k.
+     */
+    public void forward() {
+        ts++;
+        final int n = 2 * m;
+        final int w = 2 * k;
+
+        // a U(last), the mean and the diagonal of a D(last) a' + D_sigma,
+        // before any slot is reused
+        sa.timesRows(factor, stride, lastIndex, k, au, k);
+        for (int i = 0; i < m; i++) {
+            lastMean[i] = fc[i] + sa.dotRow(i, mean, 0, lastIndex);
+            lastD[i] = factor[lastIndex[i] * stride + k];
+        }
+        for (int i = 0; i < m; i++) {
+            newD[i] = dsigma[i] + sa2.dotRow(i, lastD, 0, identity);
+        }
+
+        // the new epoch goes to the free slots
+        Arrays.fill(used, false);
+        for (int i = 0; i < m; i++) {
+            used[sentIndex[i]] = true;
+        }
+        int[] next = nextIndex;
+        for (int r = 0, j = 0; r < n; r++) {
+            if (!used[r]) {
+                next[j++] = r;
+            }
+        }
+
+        // exact factor of width 2k: [U(sent) 0] and [a U(last) V]
+        int nr = 0;
+        for (int j = 0; j < m; j++) {
+            int gr = nr * w;
+            System.arraycopy(factor, sentIndex[j] * stride, g, gr, k);
+            Arrays.fill(g, gr + k, gr + w, 0);
+            rows[nr++] = sentIndex[j];
+        }
+        for (int i = 0; i < m; i++) {
+            int gr = nr * w;
+            System.arraycopy(au, i * k, g, gr, k);
+            System.arraycopy(v, i * k, g, gr + k, k);
+            factor[next[i] * stride + k] = newD[i];
+            mean[next[i]] = lastMean[i];
+            rows[nr++] = next[i];
+        }
+        truncate(nr, w);
+
+        nextIndex = lastIndex;
+        lastIndex = next;
+    }
+
+    /**
+     * Replaces the factor rows of the first nr slots in rows by the best rank
+     * k approximation of G G'; the diagonal gets what is cut off.
+     *
+     * @param w
+     *            width of G
+     */
+    private void truncate(int nr, int w) {
+        // G'G, symmetric to the last bit since both halves sum the same
+        // products in the same order
+        Arrays.fill(gram, 0);
+        for (int r = 0; r < nr; r++) {
+            int gr = r * w;
+            for (int p = 0; p < w; p++) {
+                double x = g[gr + p];
+                if (x != 0) {
+                    kernels.axpy(x, g, gr, gram, p * w, w);
+                }
+            }
+        }
+        EigenvalueDecomposition eig = new EigenvalueDecomposition(new Matrix(gram, w));
+        double[][] q = eig.getV().getArray();
+        // eigenvectors of the k largest eigenvalues, row-major w x k
+        for (int p = 0; p < w; p++) {
+            for (int l = 0; l < k; l++) {
+                qk[p * k + l] = q[p][w - 1 - l];
+            }
+        }
+
+        for (int r = 0; r < nr; r++) {
+            int gr = r * w;
+            int fr = rows[r] * stride;
+            Arrays.fill(factor, fr, fr + k, 0);
+            for (int p = 0; p < w; p++) {
+                double x = g[gr + p];
+                if (x != 0) {
+                    kernels.axpy(x, qk, p * k, factor, fr, k);
+                }
+            }
+            double cut = kernels.dot(0, g, gr, g, gr, w)
+                    - kernels.dot(0, factor, fr, factor, fr, k);
+            factor[fr + k] = Math.max(factor[fr + k] + Math.max(cut, 0), floor);
+        }
+    }
+
+    /**
+     * Conditional mean of predictIndex given sentValues at sentIndex, by the
+     * Woodbury identity. The two index sets must not share a variable.
+     *
+     * @param f
+     *            factor rows [U D], row stride fs
+     * @param result
+     *            prediction for each non-negative entry of predictIndex, packed
+     */
+    private void predict(Workspace w, double[] mean, double[] f, int fs, int[] sentIndex,
+            int[] predictIndex, double[] sentValues, double[] result) {
+        final double[] a = w.a;
+        final double[] b = w.b;
+        final double[] l = w.l;
+        // A = I + U(S)' D(S)^-1 U(S), b = U(S)' D(S)^-1 r
+        Arrays.fill(a, 0);
+        Arrays.fill(b, 0);
+        for (int p = 0; p < k; p++) {
+            a[p * k + p] = 1;
+        }
+        for (int j = 0; j < sentIndex.length; j++) {
+            int s = sentIndex[j] * fs;
+            double dinv = 1 / f[s + k];
+            double r = (sentValues[j] - mean[sentIndex[j]]) * dinv;
+            for (int p = 0; p < k; p++) {
+                double x = f[s + p];
+                if (x != 0) {
+                    kernels.axpy(x * dinv, f, s, a, p * k, k);
+                    b[p] += x * r;
+                }
+            }
+        }
+        // A is positive definite: y = A^-1 b by a Cholesky factor
+        for (int p = 0; p < k; p++) {
+            for (int q = 0; q <= p; q++) {
+                double x = kernels.residual(a[p * k + q], l, p * k, l, q * k, q);
+                if (q < p) {
+                    l[p * k + q] = x / l[q * k + q];
+                } else {
+                    l[p * k + p] = Math.sqrt(x);
+                }
+            }
+        }
+        kernels.solveLower(l, k, k, b, w.y);
+        kernels.solveLowerTransposed(l, k, k, w.y);
+
+        int n = 0;
+        for (int q : predictIndex) {
+            if (q != -1) {
+                result[n++] = kernels.dot(mean[q], f, q * fs, w.y, 0, k);
+            }
+        }
+    }
+
+    /**
+     * @return mean in the canonical order of the subset selectors, the sent
+     *         values of all nodes followed by their last epoch; a copy
+     */
+    private Matrix meanMatrix() {
+        Matrix x = new Matrix(2 * m, 1);
+        for (int i = 0; i < m; i++) {
+            x.set(i, 0, mean[sentIndex[i]]);
+            x.set(m + i, 0, mean[lastIndex[i]]);
+        }
+        return x;
+    }
+
+    /**
+     * @return the factor rows [U D] in the order of {@link #meanMatrix()}; a
+     *         copy
+     */
+    private Matrix factorMatrix() {
+        Matrix x = new Matrix(2 * m, stride);
+        double[][] d = x.getArray();
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(factor, sentIndex[i] * stride, d[i], 0, stride);
+            System.arraycopy(factor, lastIndex[i] * stride, d[m + i], 0, stride);
+        }
+        return x;
+    }
+
+    //@Override
+    public int[] send(double[] currentVal) {
+        // first time to send: always send out all values
+        if (sentValues == null) {
+            initState();
+            System.arraycopy(currentVal, 0, sentValues, 0, m);
+            if (shadow != null) {
+                shadow.start(currentVal);
+            }
+
+            return sentIndex.clone();
+        }
+
+        // move forward one epoch
+        forward();
+
+        // prediction and bound check
+        predict(work, mean, factor, stride, sentIndex, lastIndex, sentValues, prediction);
+        if (shadow != null) {
+            shadow.compare(prediction, currentVal, epsilon, kernels);
+        }
+        if (kernels.bounded(prediction, currentVal, m, epsilon)) {
+            return null;
+        }
+
+        int[] newSentIndex = subsetSelector.select(meanMatrix(), factorMatrix(),
+                new Matrix(sentValues, m), new Matrix(currentVal, m), epsilon);
+
+        // newly selected values take the slots of the last epoch
+        for (int j : newSentIndex) {
+            sentIndex[j] = lastIndex[j];
+            sentValues[j] = currentVal[j];
+            if (shadow != null) {
+                shadow.accept(j, currentVal[j]);
+            }
+        }
+        return newSentIndex;
+    }
+
+    /**
+     * Predicts other readings when sending a subset.
+     *
+     * @param mean
+     *            mean vector
+     * @param cov
+     *            the factor rows [U D]
+     * @param sentIndex
+     *            which elements to be sent
+     * @param predictIndex
+     *            which elements to be predicted
+     * @param sentValues
+     *            values of sent elements
+     * @return the prediction matrix (a column vector)
+     */
+    @Override
+    public Matrix predict(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
+            Matrix sentValues) {
+        // a selection passes the same matrix for all of its candidates
+        Workspace w = workspaces.get();
+        if (cov != w.factor) {
+            w.factor = cov;
+            w.flatFactor = CholeskyPredictor.flatten(cov, w.flatFactor);
+        }
+        int count = 0;
+        for (int p : predictIndex) {
+            if (p != -1) {
+                count++;
+            }
+        }
+        double[] result = new double[count];
+        predict(w, mean.getColumnPackedCopy(), w.flatFactor, cov.getColumnDimension(),
+                sentIndex, predictIndex, sentValues.getColumnPackedCopy(), result);
+        return new Matrix(result, count);
+    }
+
+    /**
+     * @return a model in covariance form with the same parameters, e.g. for
+     *         the history reconstruction; its constraints are off by up to the
+     *         deviation of the approximation
+     */
+    public MVNModel covarianceForm() {
+        return new MVNModel(epsilon, c, a, sigma, kernels);
+    }
+
+    @Override
+    public Kernels getKernels() {
+        return kernels;
+    }
+
+    /**
+     * Lets an exact model follow the transmission pattern, to measure the
+     * deviation of the approximation. Must be set before the first epoch.
+     */
+    public void setShadow(boolean enabled) {
+        shadow = enabled ? new ExactShadow(epsilon, c, a, sigma, kernels) : null;
+    }
+
+    /** worst deviation of a prediction from the exact one so far */
+    public double getWorstDeviation() {
+        return shadow == null ? 0 : shadow.getWorstDeviation();
+    }
+
+    public int getRank() {
+        return k;
+    }
+
+    public SubsetSelector getSubsetSelector() {
+        return subsetSelector;
+    }
+
+    public void setSubsetSelector(SubsetSelector subsetSelector) {
+        this.subsetSelector = subsetSelector;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    public String report() {
+        return "low rank " + this;
+    }
+
+    @Override
+    public String toString() {
+        if (shadow == null) {
+            return String.format("rank %d", k);
+        }
+        return String.format("rank %d epsilon %.6f %s", k, epsilon, shadow);
+    }
+}
@@ -2,7 +2,6 @@ package sim.nodes;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Vector;
 
 import sim.constraints.Interval;
 import sim.constraints.Interval.Type;
@@ -14,30 +13,63 @@ public class MVNModel implements Model {
     /** number of nodes */
     public int m;
 
-    public static int stat_sentCount = 0;
-    public static int stat_tx = 0;
-
     public Matrix c;
     public Matrix a;
     public Matrix sigma;
     double epsilon;
     public double epsilon1;
-    private Matrix sentValues;
+    /** last sent value for each node */
+    private double[] sentValues;
     
     /** if each (child) component of head-to-base transmission is known;
      * 1 : Transmitted and value known,
      * -1: transmitted but value unknown,
      * 0 : don't know if transmitted or not */
     int[] known;
-    /** total dimension of the distribution; 
-     * last m dimensions are always for last epoch
+
+    /**
+     * mean and cov over 2m fixed slots, row-major with a row stride of 2m.
+     * The distribution is over the last sent value and the last epoch of each
+     * node; sentIndex and lastIndex translate nodes to their slots. A node
+     * that has just sent uses the same slot for both. Slots of neither kind
+     * are free: their content is stale and never read. Nothing is ever moved
+     * or reallocated, so a snapshot is a plain copy.
+     */
+    double[] mean, cov;
+    /**
+     * cov in single precision, see {@link #setSinglePrecision}; cov is null
+     * then. Products and the conditioning solves are still done in double.
      */
-    int dim; 
+    float[] fcov;
+    private boolean singlePrecision = false;
+    private int stride;
+    /** incremented whenever cov changes */
+    private int covVersion = 0;
+    /** a and sigma compressed by their sparsity, see {@link SparseMatrix} */
+    private SparseMatrix sa, ssigma;
+    /** row-major copies of c and sigma */
+    private double[] fc, fsigma;
+    // scratch
+    private double[] la;
+    private double[] lastMean;
+    private double[] row;
+    private double[] prediction;
+    private boolean[] used;
+    private int[] nextIndex;
+    /**
+     * arguments of the subset selector, refilled in place for every selection;
+     * selection is incremented whenever they are
+     */
+    private Matrix selectorMean, selectorCov, selectorSent, selectorCurrent;
+    private int selection = 0;
 
-    Matrix mean, cov;
+    /** slot of the last sent value of each node */
     int[] sentIndex;
+    /** slot of the last epoch of each node */
     int[] lastIndex;
     int ts = 0;
+    /** exact model in double precision to compare with; may be null */
+    private ExactShadow shadow;
     /** time of last transmission from child to head */
     int[] lastFailureTime;
     /** type of transmission from child to head last time */
@@ -45,55 +77,246 @@ public class MVNModel implements Model {
     
     private SubsetSelector subsetSelector;
 
+    /** dense kernels of the hot path */
+    private final Kernels kernels;
+    /** conditional prediction engine, see {@link #predict} */
+    private final CholeskyPredictor predictor;
+
+    /**
+     * Prediction engine of the public {@link #predict}, one per thread so
+     * that selectors may call it concurrently.
+     */
+    static final class MatrixPredictor {
+        final CholeskyPredictor predictor;
+        /** covariance matrix the predictor is bound to, and its row-major copy */
+        Matrix cov;
+        int stamp;
+        double[] flatCov;
+        float[] flatFloatCov;
+        int version = 0;
+        /** copies of mean and sentValues, reused by the next call */
+        double[] flatMean, flatSent;
+
+        MatrixPredictor(Kernels kernels) {
+            predictor = new CholeskyPredictor(kernels);
+        }
+
+        /**
+         * See {@link Model#predict}.
+         *
+         * @param stamp
+         *            changes whenever the content of cov does while it stays
+         *            the same matrix
+         * @param singlePrecision
+         *            bind a copy of cov in single precision
+         */
+        Matrix predict(Matrix mean, Matrix cov, int stamp, int[] sentIndex, int[] predictIndex,
+                Matrix sentValues, boolean singlePrecision) {
+            // the factor of cov(sent, sent) survives as long as cov is the same
+            // matrix, which is the case for all calls of one subset selection
+            if (cov != this.cov || stamp != this.stamp) {
+                this.cov = cov;
+                this.stamp = stamp;
+                if (cov instanceof FloatMatrix) {
+                    // read only, so the threads of a selection share it
+                    predictor.bind(((FloatMatrix) cov).getFloatArray(),
+                            cov.getColumnDimension(), ++version);
+                } else if (singlePrecision) {
+                    flatFloatCov = CholeskyPredictor.flattenFloat(cov, flatFloatCov);
+                    predictor.bind(flatFloatCov, cov.getColumnDimension(), ++version);
+                } else {
+                    flatCov = CholeskyPredictor.flatten(cov, flatCov);
+                    predictor.bind(flatCov, cov.getColumnDimension(), ++version);
+                }
+            }
+            predictIndex = pack(predictIndex); // remove -1 elements
+
+            flatMean = column(mean, flatMean);
+            flatSent = column(sentValues, flatSent);
+            double[] result = new double[predictIndex.length];
+            predictor.predict(flatMean, sentIndex, predictIndex, flatSent, result);
+            return new Matrix(result, result.length);
+        }
+
+        /**
+         * @return the column vector x in to, or in a new array if to does not
+         *         have its length
+         */
+        private static double[] column(Matrix x, double[] to) {
+            double[][] d = x.getArray();
+            if (to == null || to.length != d.length) {
+                to = new double[d.length];
+            }
+            for (int i = 0; i < d.length; i++) {
+                to[i] = d[i][0];
+            }
+            return to;
+        }
+    }
+
+    private final ThreadLocal<MatrixPredictor> matrixPredictors;
+
     public MVNModel(double epsilon, Matrix c, Matrix a, Matrix sigma) {
+        this(epsilon, c, a, sigma, Kernels.SCALAR);
+    }
+
+    public MVNModel(double epsilon, Matrix c, Matrix a, Matrix sigma, Kernels kernels) {
         this.c = c;
         this.a = a;
         this.sigma = sigma;
         m = c.getRowDimension();
         this.epsilon = epsilon;
+        this.kernels = kernels;
+        predictor = new CholeskyPredictor(kernels);
+        matrixPredictors = ThreadLocal.withInitial(() -> new MatrixPredictor(kernels));
         subsetSelector = new GreedySubsetSelector(this);
     }
 
-    private int[] remainingIndex(int total, int[] state) {
-        int count = 0;
-        for (int s : state) {
-            if (s != 0) {
-                count++;
-            }
+    /**
+     * Allocates the model state for the first epoch: mean 0 and cov sigma,
+     * all nodes sent.
+     */
+    private void initState() {
+        stride = 2 * m;
+        mean = new double[stride];
+        if (singlePrecision) {
+            fcov = new float[stride * stride];
+        } else {
+            cov = new double[stride * stride];
         }
-        int[] y = new int[total - count];
-        int k = 0;
-        for (int i = 0; i < state.length; i++) {
-            if (state[i] == 0) {
-                y[k++] = i;
+        sa = SparseMatrix.of(a, kernels);
+        ssigma = SparseMatrix.of(sigma, kernels);
+        fc = c.getColumnPackedCopy();
+        fsigma = CholeskyPredictor.flatten(sigma, null);
+        la = new double[m * stride];
+        lastMean = new double[m];
+        row = new double[m];
+        prediction = new double[m];
+        used = new boolean[stride];
+        nextIndex = new int[m];
+        selectorMean = new Matrix(stride, 1);
+        // single precision like the state, see FloatMatrix
+        selectorCov = singlePrecision ? new FloatMatrix(stride, stride)
+                : new Matrix(stride, stride);
+        selectorSent = new Matrix(m, 1);
+        selectorCurrent = new Matrix(m, 1);
+
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                setCov(i * stride + j, fsigma[i * m + j]);
             }
         }
-        for (int i = state.length; i < total; i++) {
-            y[k++] = i;
+        covVersion++;
+        sentIndex = new int[m];
+        lastIndex = new int[m];
+        Helper.reset(sentIndex, 0);
+        Helper.reset(lastIndex, 0);
+        sentValues = new double[m];
+    }
+
+    /**
+     * @return element i of cov, whatever its precision
+     */
+    private double covAt(int i) {
+        return fcov != null ? fcov[i] : cov[i];
+    }
+
+    private void setCov(int i, double v) {
+        if (fcov != null) {
+            fcov[i] = (float) v;
+        } else {
+            cov[i] = v;
+        }
+    }
+
+    /**
+     * Predicts the elements in predictIndex given sentValues at sentIndex,
+     * straight from the model state.
+     *
+     * @return packed predictions; the array is reused by the next call
+     */
+    private double[] predict(int[] predictIndex) {
+        bindPredictor();
+        predictor.predict(mean, sentIndex, predictIndex, sentValues, prediction);
+        return prediction;
+    }
+
+    private void bindPredictor() {
+        if (fcov != null) {
+            predictor.bind(fcov, stride, covVersion);
+        } else {
+            predictor.bind(cov, stride, covVersion);
         }
-        return y;
+    }
+
+    /**
+     * @return prediction of the current epoch of all nodes from the last sent
+     *         values, e.g. as the exact reference of an approximate model; the
+     *         array is reused by the next call
+     */
+    double[] predictLast() {
+        return predict(lastIndex);
+    }
+
+    /**
+     * Records that node j has sent value in the current epoch.
+     */
+    void accept(int j, double value) {
+        sentIndex[j] = lastIndex[j];
+        sentValues[j] = value;
+    }
+
+    /**
+     * Fills the arguments of the subset selector: mean and cov in the
+     * canonical order of the selectors, the sent values of all nodes followed
+     * by their last epoch, the sent values and the current ones. The matrices
+     * are allocated once and overwritten by the next call.
+     */
+    private void fillSelectorArguments(double[] currentVal) {
+        double[][] x = selectorMean.getArray();
+        double[][] s = selectorSent.getArray();
+        double[][] v = selectorCurrent.getArray();
+        for (int i = 0; i < m; i++) {
+            x[i][0] = mean[sentIndex[i]];
+            x[m + i][0] = mean[lastIndex[i]];
+            s[i][0] = sentValues[i];
+            v[i][0] = currentVal[i];
+        }
+        if (fcov != null) {
+            float[] d = ((FloatMatrix) selectorCov).getFloatArray();
+            for (int i = 0; i < stride; i++) {
+                int si = (i < m ? sentIndex[i] : lastIndex[i - m]) * stride;
+                int di = i * stride;
+                for (int j = 0; j < m; j++) {
+                    d[di + j] = fcov[si + sentIndex[j]];
+                    d[di + m + j] = fcov[si + lastIndex[j]];
+                }
+            }
+        } else {
+            double[][] d = selectorCov.getArray();
+            for (int i = 0; i < stride; i++) {
+                int si = (i < m ? sentIndex[i] : lastIndex[i - m]) * stride;
+                double[] di = d[i];
+                for (int j = 0; j < m; j++) {
+                    di[j] = cov[si + sentIndex[j]];
+                    di[m + j] = cov[si + lastIndex[j]];
+                }
+            }
+        }
+        selection++;
     }
 
     /**
      * When a new subset is transmitted, they should overwrite previous values in the
-     * model. Drop those old elements and marginalize on the latest sent+unknown elements.
+     * model. The slots of the old values are freed, the latest sent+unknown
+     * elements become the sent ones.
      */
     public void marginalize(int[] state) {
-        int[] remain = remainingIndex(dim, state);
-        mean = mean.getMatrix(remain, 0, 0);
-        cov = cov.getMatrix(remain, remain);
-        Helper.reset(lastIndex, remain.length - m);
-        int j = 0, x = 0;
         for (int i = 0; i < m; i++) {
             if (state[i] != 0) {
-                sentIndex[i] = remain.length - m + i;
-                x++;
-                j++;
-            } else {
-                sentIndex[i] -= x;
+                sentIndex[i] = lastIndex[i];
             }
         }
-        dim = remain.length;
     }
 
     private boolean allKnown() {
@@ -119,24 +342,8 @@ public class MVNModel implements Model {
     public void makePrediction(Interval.Type type, Interval[] ntype, double[] val, int[] status) {
         if (sentValues == null) {
             ts = 0;
-            dim = m;
-            sentValues = new Matrix(m, 1); // last sent value for each node
-
-            for (int i = 0; i < m; i++) {
-                sentValues.set(i, 0, val[i]);
-            }
-
-            // END = 2 * m - 1;
-            mean = new Matrix(new double[m], m);
-            cov = new Matrix(new double[m][m]);
-            // mean initialized to 0 automatically
-            // now initialize cov
-            cov.setMatrix(0, m - 1, 0, m - 1, sigma);
-
-            sentIndex = new int[m];
-            lastIndex = new int[m];
-            Helper.reset(sentIndex, 0);
-            Helper.reset(lastIndex, 0);
+            initState();
+            System.arraycopy(val, 0, sentValues, 0, m);
 
             known = new int[m];
             lastFailureTime = new int[m];
@@ -163,7 +370,7 @@ public class MVNModel implements Model {
         for (int i = 0; i < m; i++) {
             lastTypes[i] = ntype[i].type;
             if (status[i] == 1) {// newly sent values
-                sentValues.set(i, 0, val[i]);
+                sentValues[i] = val[i];
                 known[i] = 1;
             } else if (status[i] == -1) {// unknown values
                 known[i] = -1;
@@ -201,7 +408,7 @@ public class MVNModel implements Model {
         /* last transmission for any components is known, so numeric computation */
         if (allKnown()) {
         	// Only happens when current time is in a Good interval
-            Matrix prediction = predict(mean, cov, sentIndex, predictIndex, sentValues);
+            double[] prediction = predict(predictIndex);
             // now constraints?
             // if (type == Interval.GOOD)
 
@@ -218,22 +425,22 @@ public class MVNModel implements Model {
                         {
                         	// both tiers transmit, equality constraint
                         	// type 0: x[i,j] = a
-                            System.out.println(String.format("0:x[%d,%d] = %f", ts + 1, j + 1, sentValues.get(j, 0)));
+                            System.out.println(String.format("0:x[%d,%d] = %f", ts + 1, j + 1, sentValues[j]));
                         } else {
-                            System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, sentValues.get(j, 0) - (epsilon1), sentValues.get(j, 0) + (epsilon1)));
+                            System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, sentValues[j] - (epsilon1), sentValues[j] + (epsilon1)));
                         }
                     } else {
                         // type 1: a <= x[i,j] <= b
                         if (ntype[j].begin == ts)
-                        	System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, prediction.get(j - x, 0) - epsilon, prediction.get(j - x, 0) +  epsilon));
+                        	System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, prediction[j - x] - epsilon, prediction[j - x] +  epsilon));
                         else
-                        	System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, prediction.get(j - x, 0) - (epsilon1 + epsilon), prediction.get(j - x, 0) + (epsilon1 + epsilon)));
+                        	System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, prediction[j - x] - (epsilon1 + epsilon), prediction[j - x] + (epsilon1 + epsilon)));
                     }
                 } else if (ntype[j].type == Type.BAD) {
                     if (predictIndex[j] == -1) {
                         // type 2: x[i,j] <a or x[i,j] >b; omit
                     	// Seems we can't derive this, can we?
-                        // System.out.println(String.format("2:%d,%d,%f,%f", ts + 1, j + 1, sentValues.get(j, 0) - epsilon1, sentValues.get(j, 0) + epsilon1));
+                        // System.out.println(String.format("2:%d,%d,%f,%f", ts + 1, j + 1, sentValues[j] - epsilon1, sentValues[j] + epsilon1));
                     } else {
                         // loose bound
                     }
@@ -253,9 +460,18 @@ public class MVNModel implements Model {
             }
             int[] compactPredictIndex = pack(predictIndex); // remove -1 elements
 
+            // indices are slots here
+            Matrix mean = new Matrix(this.mean, stride);
+            Matrix cov = new Matrix(stride, stride);
+            for (int i = 0; i < stride; i++) {
+                for (int j = 0; j < stride; j++) {
+                    cov.set(i, j, covAt(i * stride + j));
+                }
+            }
             Matrix predictMean = mean.getMatrix(compactPredictIndex, 0, 0);
-            Matrix coef = cov.getMatrix(compactPredictIndex, sentIndex).times(
-                    cov.getMatrix(sentIndex, sentIndex).inverse());
+            // coef = cov(predict,sent) * cov(sent,sent)^-1, by a solve instead of an inverse
+            Matrix coef = cov.getMatrix(sentIndex, sentIndex).solve(
+                    cov.getMatrix(sentIndex, compactPredictIndex)).transpose();
             Matrix C = predictMean.minusEquals(coef.times(mean.getMatrix(sentIndex, 0, 0))); // the constant term
 
             /*
@@ -282,7 +498,7 @@ public class MVNModel implements Model {
                         String sVar = "";
                         for (int k = 0; k < m; k++) {
                             if (known[k]==1) {
-                                temp += coef.get(j - x, k) * sentValues.get(k, 0);
+                                temp += coef.get(j - x, k) * sentValues[k];
                             } else {
                                 // NOTE: Symbolic variable here is NOT real reading, but view of the head.
                                 // So additional relaxation of the bounds should be considered. 
@@ -306,15 +522,15 @@ public class MVNModel implements Model {
                     x++;
                     if (known[j]==1 && ntype[j].type == Type.GOOD) {
                         if (ntype[j].begin == ts)
-                        	System.out.println(String.format("0:x[%d,%d] = %f", ts + 1, j + 1, sentValues.get(j, 0)));
+                        	System.out.println(String.format("0:x[%d,%d] = %f", ts + 1, j + 1, sentValues[j]));
                         else
-                        	System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, sentValues.get(j, 0) - (epsilon1), sentValues.get(j, 0) + (epsilon1)));
+                        	System.out.println(String.format("1:%d,%d,%f,%f", ts + 1, j + 1, sentValues[j] - (epsilon1), sentValues[j] + (epsilon1)));
                     /*System.out.println(String.format("1:%d,%d,%f,%f", ts+1, j+1, sentValues
                     .get(j, 0)
-                    - (epsilon1),  sentValues.get(j, 0)
+                    - (epsilon1),  sentValues[j]
                     + (epsilon1)));*/
                     } else if (known[j]==1 && ntype[j].type == Type.BAD) {
-                        System.out.println(String.format("2:%d,%d,%f,%f", ts + 1, j + 1, sentValues.get(j, 0) - epsilon1, sentValues.get(j, 0) + epsilon1));
+                        System.out.println(String.format("2:%d,%d,%f,%f", ts + 1, j + 1, sentValues[j] - epsilon1, sentValues[j] + epsilon1));
                     }
                 }
             }
@@ -324,81 +540,85 @@ public class MVNModel implements Model {
 
     /**
      * Move forward one epoch. Update mean, cov and indices.
+     * <p>
+     * The new epoch is written to the m slots that do not hold sent values.
+     * With L = a * cov(last, :) its covariance with the sent values is
+     * L(:, sent) and its own covariance is sigma + L(:, last) * a'; the sent
+     * block stays where it is. Zeros of a and sigma are skipped.
      */
     public void forward() {
         ts++;
-        // update distribution params: mean and cov
-
-        Matrix lastMean = mean.getMatrix(lastIndex, 0, 0);
-        Matrix currentMean = c.plus(a.times(lastMean));
-
-        // Matrix cov = cov.getMatrix(0, dim-1, 0, dim-1);
-        Matrix UL = cov.copy();
-        Matrix LL = a.times(cov.getMatrix(lastIndex, 0, dim - 1));
-        // oldCov.print(0, 0);
-        //Matrix UR = cov.getMatrix(0, dim - 1, lastIndex).times(a.transpose());
-        Matrix UR = LL.transpose();
-        Matrix temp = new Matrix(m, dim);
-        temp.setMatrix(0, m - 1, dim - m, dim - 1, a);
-        Matrix LR = sigma.plus(temp.times(cov).times(temp.transpose()));
-
-        // construct new mean and cov
-        dim = 2 * m;
-        int END = dim - 1;
-        Matrix tempMean = new Matrix(dim, 1);
-        tempMean.setMatrix(0, m - 1, 0, 0, mean.getMatrix(sentIndex, 0, 0));
-        tempMean.setMatrix(m, dim - 1, 0, 0, currentMean);
-        mean = tempMean;
-
-        cov = new Matrix(dim, dim);
-        cov.setMatrix(0, m - 1, 0, m - 1, UL.getMatrix(sentIndex, sentIndex));
-        cov.setMatrix(0, m - 1, m, END, UR.getMatrix(sentIndex, 0, m - 1));
-        cov.setMatrix(m, END, 0, m - 1, LL.getMatrix(0, m - 1, sentIndex));
-        cov.setMatrix(m, END, m, END, LR);
-        // cov is full now
-        // lastTimeBegin = m;
-        // lastTimeEnd = END;
-        Helper.reset(sentIndex, 0);
-        Helper.reset(lastIndex, m);
+        final int n = stride;
+
+        // L = a * cov(last, :) and the new mean, before any slot is reused
+        if (fcov != null) {
+            sa.timesRows(fcov, n, lastIndex, n, la, n);
+        } else {
+            sa.timesRows(cov, n, lastIndex, n, la, n);
+        }
+        for (int i = 0; i < m; i++) {
+            lastMean[i] = fc[i] + sa.dotRow(i, mean, 0, lastIndex);
+        }
+
+        // the new epoch goes to the free slots
+        Arrays.fill(used, false);
+        for (int i = 0; i < m; i++) {
+            used[sentIndex[i]] = true;
+        }
+        int[] next = nextIndex;
+        for (int r = 0, k = 0; r < n; r++) {
+            if (!used[r]) {
+                next[k++] = r;
+            }
+        }
+
+        for (int i = 0; i < m; i++) {
+            int ci = next[i] * n;
+            int li = i * n;
+            for (int j = 0; j < m; j++) {
+                double v = la[li + sentIndex[j]];
+                setCov(ci + sentIndex[j], v);
+                setCov(sentIndex[j] * n + next[i], v);
+            }
+            // current epoch: sigma + L(:, last) * a'
+            for (int l = 0; l < m; l++) {
+                row[l] = sa.dotRow(l, la, li, lastIndex);
+            }
+            ssigma.addRow(i, row, 0);
+            for (int l = 0; l < m; l++) {
+                setCov(ci + next[l], row[l]);
+            }
+            mean[next[i]] = lastMean[i];
+        }
+        nextIndex = lastIndex;
+        lastIndex = next;
+        covVersion++;
     }
 
     //@Override
     public int[] send(double[] currentVal) {
         // first time to send: always send out all values
         if (sentValues == null) {
-            dim = m;
-            sentValues = new Matrix(m, 1); // last sent value for each node
-
-            for (int i = 0; i < m; i++) {
-                sentValues.set(i, 0, currentVal[i]);
+            initState();
+            System.arraycopy(currentVal, 0, sentValues, 0, m);
+            if (shadow != null) {
+                shadow.start(currentVal);
             }
-            mean = new Matrix(new double[m], m);
-            cov = new Matrix(new double[m][m]);
-            // mean initialized to 0 automatically
-            // now initialize cov
-            cov.setMatrix(0, m - 1, 0, m - 1, sigma);
-
-            sentIndex = new int[m];
-            lastIndex = new int[m];
-            Helper.reset(sentIndex, 0);
-            Helper.reset(lastIndex, 0);
 
-            stat_sentCount += m;
-            stat_tx += 1;
-
-            return sentIndex;
+            return sentIndex.clone();
         }
 
-        Matrix currentValues = new Matrix(currentVal, m);
-
         // move forward one epoch
         forward();
         // cov.print(0, 7);
 
         // prediction and bound check
-        Matrix prediction = predict(mean, cov, sentIndex, lastIndex, sentValues);
+        double[] prediction = predict(lastIndex);
 
-        if (isBounded(prediction, currentValues, epsilon)) {
+        if (shadow != null) {
+            shadow.compare(prediction, currentVal, epsilon, kernels);
+        }
+        if (isBounded(prediction, currentVal, epsilon)) {
             // System.out.println("suppressed");
             return null;
         }
@@ -406,79 +626,23 @@ public class MVNModel implements Model {
         /*
          * subset selection
          */
-        int[] newSentIndex = subsetSelector.select(mean, cov, sentValues, currentValues,
-                epsilon);
-        int subsetSize = newSentIndex.length;
-        // for (int j = 0; j < newSentIndex.length; j++) {
-        // if (newSentIndex[j] >= m) {
-        // subsetSize++;
-        // }
-        // }
-        stat_sentCount += subsetSize;
-        stat_tx += (subsetSize !=0 ?1:0);
-
-        // compact mean and cov by dropping useless entries
-        // newly selected indices overwrite previous ones
-        // e.g. suppose newSentIndex=[1,2], m=4, then newIndex=[0,3,4,5,6,7]
-        // and sentIndex becomes [0,3,4,1] while lastIndex=[2,3,4,5]
-        int[] newIndex = new int[dim - subsetSize];
-        Vector<Integer> vec = new Vector<Integer>();
-        for (int j = 0; j < dim; j++) {
-            vec.add(j);
-        }
-        for (int j = subsetSize - 1; j > -1; j--) {
-            vec.remove(newSentIndex[j]);
-        }
-        for (int j = 0; j < vec.size(); j++) {
-            newIndex[j] = vec.get(j);
-        // int k = 0;
-        // for (int j = 0; j < newSentIndex.length; j++) {
-        // if (newSentIndex[j] < m)
-        // newIndex[k++] = newSentIndex[j];
-        // }
-        // for (int j = m; j < dim; j++)
-        // newIndex[k++] = j;
-        }
-        mean = mean.getMatrix(newIndex, 0, 0);
-        cov = cov.getMatrix(newIndex, newIndex);
-        dim -= subsetSize;
-        Helper.reset(lastIndex, m - subsetSize);
-
-        int x = 0; // how many have been dropped so far
-
-        int k = 0;
-        for (int j = 0; j < sentIndex.length; j++) {
-            if (k < subsetSize && sentIndex[j] == newSentIndex[k]) { // intersect
-                // of
-                // sentIndex
-                // and
-                // predictIndex
-
-                x++;
-                k++;
-                sentIndex[j] += (m - subsetSize);
-                sentValues.set(j, 0, currentValues.get(j, 0));
-            } else {
-                sentIndex[j] -= x;
+        fillSelectorArguments(currentVal);
+        int[] newSentIndex = subsetSelector.select(selectorMean, selectorCov, selectorSent,
+                selectorCurrent, epsilon);
+
+        // newly selected values take the slots of the last epoch; the slots
+        // of the values they overwrite become free
+        for (int j : newSentIndex) {
+            accept(j, currentVal[j]);
+            if (shadow != null) {
+                shadow.accept(j, currentVal[j]);
             }
         }
-        // int x = 0;
-        // for (int j = 0; j < newSentIndex.length; j++) {
-        // if (newSentIndex[j] >= m) { // intersect of sentIndex and
-        // // predictIndex
-        // x++;
-        // newSentIndex[j] -= subsetSize;
-        // sentValues.set(j, 0, currentValues.get(j, 0));
-        // } else {
-        // newSentIndex[j] -= x;
-        // }
-        // }
-        // sentIndex = newSentIndex;
         return newSentIndex;
     }
 
-    private boolean isBounded(Matrix a, Matrix b, double e) {
-        return (a.minus(b).normInf() <= e);
+    private boolean isBounded(double[] a, double[] b, double e) {
+        return kernels.bounded(a, b, b.length, e);
     }
 
     /**
@@ -526,13 +690,97 @@ public class MVNModel implements Model {
     @Override
     public Matrix predict(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
             Matrix sentValues) {
-        predictIndex = pack(predictIndex); // remove -1 elements
+        return matrixPredictors.get().predict(mean, cov, selection, sentIndex, predictIndex,
+                sentValues, singlePrecision);
+    }
+
+    /**
+     * Copy of the model state between two epochs.
+     */
+    public static final class Snapshot {
+        private final int ts;
+        private final double[] mean, cov, sentValues;
+        private final float[] fcov;
+        private final int[] sentIndex, lastIndex;
+
+        private Snapshot(MVNModel model) {
+            ts = model.ts;
+            mean = model.mean.clone();
+            cov = model.cov == null ? null : model.cov.clone();
+            fcov = model.fcov == null ? null : model.fcov.clone();
+            sentValues = model.sentValues.clone();
+            sentIndex = model.sentIndex.clone();
+            lastIndex = model.lastIndex.clone();
+        }
+    }
+
+    /**
+     * @return a copy of the current state; the model must have seen its first
+     *         epoch
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Sets the state back to a snapshot of this model.
+     */
+    public void restore(Snapshot snapshot) {
+        ts = snapshot.ts;
+        System.arraycopy(snapshot.mean, 0, mean, 0, mean.length);
+        if (fcov != null) {
+            System.arraycopy(snapshot.fcov, 0, fcov, 0, fcov.length);
+        } else {
+            System.arraycopy(snapshot.cov, 0, cov, 0, cov.length);
+        }
+        System.arraycopy(snapshot.sentValues, 0, sentValues, 0, m);
+        System.arraycopy(snapshot.sentIndex, 0, sentIndex, 0, m);
+        System.arraycopy(snapshot.lastIndex, 0, lastIndex, 0, m);
+        covVersion++;
+    }
 
-        Matrix predictMean = mean.getMatrix(predictIndex, 0, 0);
-        predictMean.plusEquals(cov.getMatrix(predictIndex, sentIndex).times(
-                cov.getMatrix(sentIndex, sentIndex).inverse()).times(
-                sentValues.minus(mean.getMatrix(sentIndex, 0, 0))));
-        return predictMean;
+    @Override
+    public void resetPrediction() {
+        matrixPredictors.get().cov = null;
+    }
+
+    @Override
+    public Kernels getKernels() {
+        return kernels;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * Keeps cov and the selectors' copy of it in single precision, which
+     * halves their memory. Must be set before the
+     * first epoch.
+     *
+     * @param shadow
+     *            let an exact model in double precision follow the
+     *            transmission pattern, to measure the error
+     */
+    public void setSinglePrecision(boolean singlePrecision, boolean shadow) {
+        this.singlePrecision = singlePrecision;
+        this.shadow = singlePrecision && shadow ? new ExactShadow(epsilon, c, a, sigma, kernels) : null;
+    }
+
+    /**
+     * @return deviation of the predictions from double precision, if kept
+     */
+    @Override
+    public String report() {
+        return shadow == null ? null : "single precision " + shadow;
+    }
+
+    public SubsetSelector getSubsetSelector() {
+        return subsetSelector;
+    }
+
+    public void setSubsetSelector(SubsetSelector subsetSelector) {
+        this.subsetSelector = subsetSelector;
     }
 
     public double getEpsilon() {
@@ -551,25 +799,10 @@ public class MVNModel implements Model {
     public void update(int epoch, List<IndexValuePair> content) {
         // all values should be transmitted at epoch 0
         if (epoch == 0) {
-            dim = m;
-            sentIndex = new int[m];
-            lastIndex = new int[m];
-            Helper.reset(sentIndex, 0);
-            Helper.reset(lastIndex, 0);
-
-            sentValues = new Matrix(m, 1); // last sent value for each node
-
+            initState();
             for (IndexValuePair p : content) {
-                sentIndex[p.index] = p.index;
-                sentValues.set(p.index, 0, p.value);
+                sentValues[p.index] = p.value;
             }
-            // END = 2 * m - 1;
-            mean = new Matrix(new double[m], m);
-            cov = new Matrix(new double[m][m]);
-            // mean initialized to 0 automatically
-            // now initialize cov
-            cov.setMatrix(0, m - 1, 0, m - 1, sigma);
-
             return;
         }
 
@@ -588,51 +821,18 @@ public class MVNModel implements Model {
             // sentIndex[p.index] += m;
             // sentValues.set(p.index, 0, p.value);
             // }
-            int[] newIndex = new int[dim - size];
-            Vector<Integer> vec = new Vector<Integer>();
-            for (int j = 0; j < dim; j++) {
-                vec.add(j);
-            }
-            for (int j = size - 1; j > -1; j--) {
-                vec.remove(content.get(j).index);
-            }
-            for (int j = 0; j < vec.size(); j++) {
-                newIndex[j] = vec.get(j);
-            }
-            mean = mean.getMatrix(newIndex, 0, 0);
-            cov = cov.getMatrix(newIndex, newIndex);
-            dim -= size;
-            Helper.reset(lastIndex, m - size);
-            int x = 0; // how many have been dropped so far
-
-            int k = 0;
-            for (int j = 0; j < sentIndex.length; j++) {
-                if (k < size && sentIndex[j] == content.get(k).index) { // intersect
-                    // of
-                    // sentIndex
-                    // and
-                    // predictIndex
-
-                    sentIndex[j] += (m - size);
-                    sentValues.set(j, 0, content.get(k).value);
-                    x++;
-                    k++;
-                } else {
-                    sentIndex[j] -= x;
-                }
+            for (IndexValuePair p : content) {
+                accept(p.index, p.value);
             }
-
         }
 
         // check if we have sth to predict
-        int[] predictIndex = new int[m];
-        Helper.reset(predictIndex, dim - m);
         if (size < m) {
-            Matrix prediction = predict(mean, cov, sentIndex, predictIndex, sentValues);
+            double[] prediction = predict(lastIndex);
 
             if (size != 0) {
                 for (IndexValuePair p : content) {
-                    prediction.set(p.index, 0, p.value);
+                    prediction[p.index] = p.value;
                 }
             }
         }
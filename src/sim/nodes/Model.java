@@ -28,4 +28,31 @@ public interface Model {
      */
     public Matrix predict(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
             Matrix sentValues);
+
+    /**
+     * @return the selector used by send when the prediction is not bounded
+     */
+    public SubsetSelector getSubsetSelector();
+
+    /**
+     * @return statistics of the run to log at its end, e.g. of a cache or an
+     *         approximation, or null if there are none
+     */
+    public default String report() {
+        return null;
+    }
+
+    /**
+     * Drops whatever predict keeps between calls on the calling thread, so
+     * that the results of the following calls do not depend on earlier ones.
+     */
+    public default void resetPrediction() {
+    }
+
+    /**
+     * @return the dense kernels of the model, also used by its selector
+     */
+    public default Kernels getKernels() {
+        return Kernels.SCALAR;
+    }
 }
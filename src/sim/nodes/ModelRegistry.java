@@ -0,0 +1,219 @@
+package sim.nodes;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+import Jama.Matrix;
+
+/**
+ * Cluster models by name.
+ * <p>
+ * The built-in models are mvn, lowrank, var, ar1 and diagonal.
+ * More can be added in the configuration, by class name:
+ *
+ * <pre>
+ * &lt;models&gt;
+ *   &lt;model&gt;&lt;name&gt;mine&lt;/name&gt;&lt;class&gt;my.MyModel&lt;/class&gt;&lt;/model&gt;
+ * &lt;/models&gt;
+ * </pre>
+ *
+ * The class either implements {@link Factory} and has a constructor without
+ * arguments, or implements {@link Model} and has a constructor like the
+ * built-in ones, (double epsilon, Matrix c, Matrix a, Matrix sigma).
+ * <p>
+ * The name auto picks a model per cluster, see {@link #choose}.
+ */
+public class ModelRegistry {
+
+    /**
+     * Creates the model of a cluster.
+     */
+    public interface Factory {
+        /**
+         * @param sub
+         *            configuration of the cluster, for per cluster settings
+         */
+        public Model create(Matrix c, Matrix a, Matrix sigma, HierarchicalConfiguration sub,
+                Network net);
+    }
+
+    private static Logger logger = Logger.getLogger(ModelRegistry.class);
+
+    /** shared by all simulations of the JVM, which may configure it concurrently */
+    private static final Map<String, Factory> factories = new ConcurrentHashMap<String, Factory>();
+
+    static {
+        register("mvn", (c, a, sigma, sub, net) -> {
+            MVNModel model = new MVNModel(net.epsilon2, c, a, sigma,
+                    net.getContext().getKernels());
+            model.setSubsetSelector(createSelector(sub.getString("selector", net.selector),
+                    model, net.borderedScoring, net));
+            model.setSinglePrecision(net.precision.equals("float"), net.shadow);
+            return model;
+        });
+        register("lowrank", (c, a, sigma, sub, net) -> {
+            LowRankModel model = new LowRankModel(net.epsilon2, c, a, sigma,
+                    sub.getInt("rank", net.rank), net.getContext().getKernels());
+            model.setSubsetSelector(createSelector(sub.getString("selector", net.selector),
+                    model, false, net));
+            model.setShadow(net.shadow);
+            return model;
+        });
+        register("var", (c, a, sigma, sub, net) -> {
+            VARModel model = new VARModel(net.epsilon2, c, a, sigma,
+                    net.getContext().getKernels());
+            model.setSubsetSelector(createSelector(sub.getString("selector", net.selector),
+                    model, net.borderedScoring, net));
+            return model;
+        });
+        register("ar1", (c, a, sigma, sub, net) -> new AR1Model(net.epsilon2, c, a, sigma,
+                net.getContext().getKernels()));
+        register("diagonal", (c, a, sigma, sub, net) -> new DiagonalModel(net.epsilon2, c, a,
+                sigma, net.getContext().getKernels()));
+    }
+
+    public static void register(String name, Factory factory) {
+        factories.put(name, factory);
+    }
+
+    /**
+     * Registers a model class, see the class comment.
+     */
+    public static void register(String name, String className) {
+        Class<?> cls;
+        try {
+            cls = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("model class " + className + " not found", e);
+        }
+        try {
+            if (Factory.class.isAssignableFrom(cls)) {
+                register(name, (Factory) cls.getConstructor().newInstance());
+            } else if (Model.class.isAssignableFrom(cls)) {
+                Constructor<?> ctor = cls.getConstructor(double.class, Matrix.class,
+                        Matrix.class, Matrix.class);
+                register(name, (c, a, sigma, sub, net) -> {
+                    try {
+                        return (Model) ctor.newInstance(net.epsilon2, c, a, sigma);
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalStateException("cannot create model " + name, e);
+                    }
+                });
+            } else {
+                throw new IllegalArgumentException(className + " is neither a model nor a factory");
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("cannot use model class " + className, e);
+        }
+    }
+
+    /**
+     * Registers the models listed under models.model in the configuration.
+     */
+    public static void configure(HierarchicalConfiguration config) {
+        for (Object obj : config.configurationsAt("models.model")) {
+            HierarchicalConfiguration sub = (HierarchicalConfiguration) obj;
+            register(sub.getString("name"), sub.getString("class"));
+        }
+    }
+
+    public static boolean contains(String name) {
+        return factories.containsKey(name);
+    }
+
+    /**
+     * Creates the model of a cluster. Only var takes an a of higher order.
+     */
+    public static Model create(String name, Matrix c, Matrix a, Matrix sigma,
+            HierarchicalConfiguration sub, Network net) {
+        Factory factory = factories.get(name);
+        if (factory == null) {
+            throw new IllegalArgumentException("unknown model " + name);
+        }
+        if (!name.equals("var") && a.getColumnDimension() != a.getRowDimension()) {
+            throw new IllegalArgumentException("model " + name + " is of order 1");
+        }
+        return factory.create(c, a, sigma, sub, net);
+    }
+
+    /**
+     * Picks the first of the candidates whose number of sent values on a
+     * calibration window is within a tolerance of that of the last candidate,
+     * the reference. Candidates are meant to be listed from the cheapest to
+     * the most expensive, e.g. ar1, diagonal, mvn. Every candidate runs on
+     * the readings themselves for the first epochs of the data.
+     *
+     * @param nodes
+     *            global ids of the nodes of the cluster
+     * @param window
+     *            number of epochs of the calibration
+     * @param tolerance
+     *            relative excess of sent values over the reference that is
+     *            still accepted
+     * @return name of the chosen model
+     */
+    public static String choose(String[] candidates, int window, double tolerance,
+            DataProvider data, int[] nodes, int cluster, Matrix c, Matrix a, Matrix sigma,
+            HierarchicalConfiguration sub, Network net) {
+        int steps = Math.min(window, data.getTimeSteps());
+        int[] sends = new int[candidates.length];
+        int r = candidates.length - 1;
+        sends[r] = calibrate(candidates[r], steps, data, nodes, c, a, sigma, sub, net);
+        for (int k = 0; k < r; k++) {
+            sends[k] = calibrate(candidates[k], steps, data, nodes, c, a, sigma, sub, net);
+            if (sends[k] <= (1 + tolerance) * sends[r]) {
+                r = k;
+                break;
+            }
+        }
+        List<String> report = new ArrayList<String>();
+        for (int k = 0; k < candidates.length; k++) {
+            if (sends[k] > 0) {
+                report.add(candidates[k] + " " + sends[k]);
+            }
+        }
+        logger.info(String.format("C %d auto model %s, sent values in %d epochs: %s", cluster,
+                candidates[r], steps, report));
+        return candidates[r];
+    }
+
+    /**
+     * @return number of values sent by the model on the first epochs
+     */
+    private static int calibrate(String name, int steps, DataProvider data, int[] nodes,
+            Matrix c, Matrix a, Matrix sigma, HierarchicalConfiguration sub, Network net) {
+        Model model = create(name, c, a, sigma, sub, net);
+        int sent = 0;
+        for (int t = 0; t < steps; t++) {
+            int[] sentIndex = model.send(data.getData(nodes, t));
+            if (sentIndex != null) {
+                sent += sentIndex.length;
+            }
+        }
+        return sent;
+    }
+
+    static SubsetSelector createSelector(String name, Model model, boolean bordered,
+            Network net) {
+        if (name.equals("greedy")) {
+            GreedySubsetSelector selector = new GreedySubsetSelector(model, bordered);
+            selector.setParallelThreshold(net.parallelThreshold);
+            return selector;
+        } else if (name.equals("lazy")) {
+            return new LazyGreedySubsetSelector(model);
+        } else if (name.equals("optimal")) {
+            return new BranchAndBoundSubsetSelector(model, net.selectorBudget);
+        } else if (name.equals("linear")) {
+            LinearSubsetSelector selector = new LinearSubsetSelector(model);
+            selector.setParallelThreshold(net.parallelThreshold);
+            return selector;
+        }
+        throw new IllegalArgumentException("unknown selector " + name);
+    }
+}
@@ -15,14 +15,43 @@ public class Network {
 	public int nodeRedundancyFromHeadToBase;
 	public int headRedundancy;
 	public int assumeNoFailures;
+	public boolean borderedScoring = false; // greedy selection scores candidates by bordered inverses
+	public String model = "mvn"; // default cluster model: mvn, lowrank, var, ar1, diagonal, a registered one or auto
+	public String[] autoModels = {"ar1", "diagonal", "mvn"}; // candidates of the auto model from the cheapest, the last is the reference
+	public int autoWindow = 100; // epochs the auto model calibrates its candidates on
+	public double autoTolerance = 0.05; // relative excess of sent values over the reference that auto still accepts
+	public String selector = "greedy"; // default subset selector: greedy, lazy, optimal or linear
+	public boolean eventNodes = false; // nodes are only stepped at their transmissions, suppressed epochs are skipped and not traced
+	public boolean arrayNodes = false; // nodes of a cluster are kept as arrays and tested in one pass, suppressed epochs are not traced
+	public String nodePredictor = "constant"; // suppression predictor of the nodes, mirrored by the head: constant, trend or ar1
+	public long selectorBudget = 100; // time budget of one optimal selection in ms
+	public int parallelThreshold = CandidateEvaluator.DEFAULT_THRESHOLD; // cluster size from which selectors score candidates in parallel
+	public boolean actors = false; // nodes and cluster heads run as actors with mailboxes, ticked once per epoch
+	public int mailboxSize = 16; // capacity of the actor mailboxes, a head's holds at least a message per node
+	public int deliveryDelay = 0; // epochs a node message takes to reach its head in actor mode
+	public int epochThreads = 1; // clusters sending concurrently within an epoch, 1 sends them one after the other
+	public int rank = 8; // rank of the covariance factor of the lowrank model
+	public boolean shadow = false; // approximate models (lowrank, float) report their deviation from the exact model
+	public String precision = "double"; // storage precision of data and MVN state: double or float
+	public int order = 1; // order of the fitted params; var models take theirs from the size of a
+	public boolean fitParams = false; // cluster params are fitted from the data file instead of read from the configuration
+	public int replicate = -1; // replicate of the failure draws, each with streams of its own; -1 seeds them by local id
+	public long seed = 0; // root seed of the failure streams of the replicates
+	public String failureSchedule = "none"; // failures drawn as they happen (none) or drawn for the whole run: bernoulli or gilbert
+	public int scheduleAttempts = 8; // attempts per epoch a failure schedule covers, at least maxTry1 and maxTry2
+	public double burstLength = 4; // mean epochs of a bad spell of the gilbert channel
+	public double lossGood = 0; // failure probability in the good state of the gilbert channel
+	public double lossBad = 1; // failure probability in the bad state of the gilbert channel
+	public String scheduleFile = null; // failure schedule read from this file if it exists, written to it otherwise
+	public String kernels = "scalar"; // dense kernels of the model hot path: scalar or vector (JDK Vector API)
 	
+	private final SimulationContext context = new SimulationContext(this);
 	public BaseStation baseStation;
 	public Cluster[] clusters;
 	public int[] inverseClusterTable;
 	
 	public double failureRate1;
 	public double failureRate2;
-	public DataProvider dataProvider;
 
 	public EncoderConfiguration encoderConfiguration;
 	public boolean coding = false;
@@ -31,6 +60,10 @@ public class Network {
 	public Network() {
 	}
 	
+	public SimulationContext getContext() {
+		return context;
+	}
+
 	public BaseStation createBaseStation() {
 		return (baseStation = new BaseStation(this, clusterCount));
 	}
@@ -20,22 +20,50 @@ import coding.EncoderConfiguration;
  */
 public class NetworkConfiguration {
 	
-	private static DataProvider globalDataProvider = null;
-	private static Network globalNetwork = null;
+	/**
+	 * Readings and cluster params, which networks created from variants of
+	 * one configuration can share, e.g. in a sweep. They are read, parsed or
+	 * fitted by the first network created with them and only read by the
+	 * others, which may then be created and run concurrently. The variants
+	 * must agree on everything that goes into them: the data file, its size
+	 * and precision, and the clusters with their params.
+	 */
+	public static class Shared {
+		private DataProvider data;
+		/** c, a and sigma of each cluster */
+		private Matrix[][] params;
+
+		private DataProvider getData(String dataFile, Network net) {
+			if (data == null) {
+				data = new DataProvider(net.nodeCount, net.timeSteps,
+						net.precision.equals("float"));
+				data.read(dataFile);
+			}
+			return data;
+		}
+	}
 	
 	public static Network createNetwork(String filename) {
 		return createNetwork(filename, true);
 	}
 	
 	public static Network createNetwork(String filename, boolean allocate) {
-		Network net = new Network();
-		globalNetwork = net;
-		HierarchicalConfiguration config = null;
+		return createNetwork(read(filename), allocate, new Shared());
+	}
+
+	public static XMLConfiguration read(String filename) {
+		XMLConfiguration config = null;
 		try {
 			config = new XMLConfiguration(filename);
 		} catch (ConfigurationException e2) {
 			e2.printStackTrace();
 		}
+		return config;
+	}
+
+	public static Network createNetwork(HierarchicalConfiguration config, boolean allocate,
+			Shared shared) {
+		Network net = new Network();
 
 		String dataFile = config.getString("dataFile");
 		net.timeSteps = config.getInt("timeSteps", 0);
@@ -50,6 +78,49 @@ public class NetworkConfiguration {
 		net.nodeRedundancy = config.getInt("nodeRedundancy");
 		net.nodeRedundancyFromHeadToBase = config.getInt("nodeRedundancyFromHeadToBase");
 		net.headRedundancy = config.getInt("headRedundancy");
+		net.borderedScoring = config.getBoolean("borderedScoring", false);
+		net.model = config.getString("model", "mvn");
+		net.selector = config.getString("selector", "greedy");
+		net.nodePredictor = config.getString("nodePredictor", net.nodePredictor);
+		net.eventNodes = config.getBoolean("eventNodes", net.eventNodes);
+		net.arrayNodes = config.getBoolean("arrayNodes", net.arrayNodes);
+		if (net.eventNodes && net.arrayNodes) {
+			throw new IllegalArgumentException("eventNodes and arrayNodes exclude each other");
+		}
+		net.actors = config.getBoolean("actors", net.actors);
+		net.mailboxSize = config.getInt("mailboxSize", net.mailboxSize);
+		net.deliveryDelay = config.getInt("deliveryDelay", net.deliveryDelay);
+		if (net.actors && (net.eventNodes || net.arrayNodes)) {
+			throw new IllegalArgumentException("actors run the nodes as objects, without eventNodes and arrayNodes");
+		}
+		net.selectorBudget = config.getLong("selectorBudget", 100);
+		net.parallelThreshold = config.getInt("parallelThreshold", net.parallelThreshold);
+		net.epochThreads = config.getInt("epochThreads", net.epochThreads);
+		net.rank = config.getInt("rank", net.rank);
+		net.shadow = config.getBoolean("shadow", false);
+		net.precision = config.getString("precision", "double");
+		if (!net.precision.equals("double") && !net.precision.equals("float")) {
+			throw new IllegalArgumentException("unknown precision " + net.precision);
+		}
+		net.fitParams = config.getBoolean("fitParams", false);
+		net.order = config.getInt("order", net.order);
+		net.replicate = config.getInt("replicate", net.replicate);
+		net.seed = config.getLong("seed", net.seed);
+		net.failureSchedule = config.getString("failureSchedule", net.failureSchedule);
+		if (!net.failureSchedule.equals("none") && !net.failureSchedule.equals("bernoulli")
+				&& !net.failureSchedule.equals("gilbert")) {
+			throw new IllegalArgumentException("unknown failure schedule " + net.failureSchedule);
+		}
+		net.scheduleAttempts = config.getInt("scheduleAttempts", net.scheduleAttempts);
+		if (!net.failureSchedule.equals("none")) {
+			SimulationContext.checkAttempts(net, net.scheduleAttempts, "scheduleAttempts");
+		}
+		net.burstLength = config.getDouble("burstLength", net.burstLength);
+		net.lossGood = config.getDouble("lossGood", net.lossGood);
+		net.lossBad = config.getDouble("lossBad", net.lossBad);
+		net.scheduleFile = config.getString("scheduleFile", net.scheduleFile);
+		net.kernels = config.getString("kernels", "scalar");
+		net.getContext().setKernels(Kernels.forName(net.kernels));
 		//net.headHistorySize = config.getInt("headHistorySize",4);
 		
 		// read encoder configuration
@@ -77,6 +148,35 @@ public class NetworkConfiguration {
 
 		BaseStation bs = net.createBaseStation();
 
+		// fitted params and the automatic model choice need the data first,
+		// which is then kept
+		ModelRegistry.configure(config);
+		String[] autoModels = config.getStringArray("autoModels");
+		if (autoModels.length > 0) {
+			net.autoModels = autoModels;
+		}
+		net.autoWindow = config.getInt("autoWindow", net.autoWindow);
+		net.autoTolerance = config.getDouble("autoTolerance", net.autoTolerance);
+		boolean auto = false;
+		for (Object obj : clusters) {
+			auto |= ((HierarchicalConfiguration) obj).getString("model", net.model).equals("auto");
+		}
+		DataProvider data = null;
+		if (net.fitParams || auto) {
+			data = shared.getData(dataFile, net);
+			if (allocate) {
+				net.getContext().setDataProvider(data);
+			}
+		}
+		ParameterEstimator[] fitted = null;
+		if (shared.params == null) {
+			if (net.fitParams) {
+				fitted = ParameterEstimator.fit(data, ParameterEstimator.clusterNodes(config),
+						net.order, 1, net.timeSteps);
+			}
+			shared.params = new Matrix[clusters.size()][];
+		}
+
 		// read each cluster
 		int i = 0;
 		
@@ -96,12 +196,24 @@ public class NetworkConfiguration {
 			}
 
 			// read model params
-			Matrix c = new Jama.Matrix(
-					convertDouble(sub.getList("params.c")), net.nodeCount);
-			Matrix a = new Jama.Matrix(
-					convertDouble(sub.getList("params.a")), net.nodeCount);
-			Matrix sigma = new Jama.Matrix(convertDouble(sub
-					.getList("params.sigma")), net.nodeCount);
+			Matrix c, a, sigma;
+			if (shared.params[i] != null) {
+				c = shared.params[i][0];
+				a = shared.params[i][1];
+				sigma = shared.params[i][2];
+			} else if (fitted != null) {
+				c = fitted[i].getC();
+				a = fitted[i].getA();
+				sigma = fitted[i].getSigma();
+			} else {
+				c = new Jama.Matrix(
+						convertDouble(sub.getList("params.c")), net.nodeCount);
+				a = new Jama.Matrix(
+						convertDouble(sub.getList("params.a")), net.nodeCount);
+				sigma = new Jama.Matrix(convertDouble(sub
+						.getList("params.sigma")), net.nodeCount);
+			}
+			shared.params[i] = new Matrix[] {c, a, sigma};
 			/*cluster.params.put("c", new Jama.Matrix(
 					convertDouble(sub.getList("params.c")), net.nodeCount));
 			cluster.params.put("a", new Jama.Matrix(
@@ -110,7 +222,16 @@ public class NetworkConfiguration {
 					.getList("params.sigma")), net.nodeCount));
 			*/
 			
-			cluster.setModel(new MVNModel(net.epsilon2, c, a, sigma));
+			String modelName = sub.getString("model", net.model);
+			if (modelName.equals("auto")) {
+				modelName = ModelRegistry.choose(net.autoModels, net.autoWindow,
+						net.autoTolerance, data, cluster.nodeGlobalIDs, i, c, a, sigma, sub, net);
+			}
+			cluster.setModel(ModelRegistry.create(modelName, c, a, sigma, sub, net));
+			String predictorName = sub.getString("nodePredictor", net.nodePredictor);
+			if (!predictorName.equals("constant")) {
+				cluster.setNodePredictor(predictorName, c, a, sigma);
+			}
 			
 			//cluster.init(net.epsilon1, net.epsilon2, allocate);
 			// cluster.init();
@@ -123,23 +244,16 @@ public class NetworkConfiguration {
 		//net.init();
 
 		// allocate space for data; read into a DataProvider
-		if (allocate) {
-			globalDataProvider = new DataProvider(net.nodeCount, net.timeSteps);
-			globalDataProvider.read(dataFile);
+		if (allocate && data == null) {
+			data = shared.getData(dataFile, net);
+			net.getContext().setDataProvider(data);
 		}
+		net.getContext().saveFailureSchedule();
 
 		return net;
 		
 	}
 	
-	public static DataProvider getGlobalDataProvider() {
-		return globalDataProvider;
-	}
-	
-	public static Network getGlobalNetwork() {
-		return globalNetwork;
-	}
-	
 	private static double[] convertDouble(List list) {
 		double[] d = new double[list.size()];
 		for (int i = 0; i < list.size(); i++) {
@@ -156,21 +270,4 @@ public class NetworkConfiguration {
         return d;
     }
 
-// try {
-// Class modelClass = Class.forName(model);
-//			Model m = (Model) modelClass.newInstance();
-//			//m.setNetworkConfiguration(this);
-//			//m.startSimulation(cluster, e);
-//		} catch (ClassNotFoundException e1) {
-//			// TODO Auto-generated catch block
-//			e1.printStackTrace();
-//			// System.err.println("Class "+model+" not found!");
-//		} catch (InstantiationException ie) {
-//			// TODO Auto-generated catch block
-//			ie.printStackTrace();
-//		} catch (IllegalAccessException ile) {
-//			// TODO Auto-generated catch block
-//			ile.printStackTrace();
-//		}
-
 }
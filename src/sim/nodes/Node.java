@@ -1,5 +1,6 @@
 package sim.nodes;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -10,8 +11,8 @@ public class Node {
 	private int id;
 	//private double[] data;
 	private double epsilon;
-	private double state; // state variable for suppression: last transmitted
-							// value
+	private NodePredictor predictor = new NodePredictor.Constant(); // suppression: transmit
+							// when the reading leaves the prediction by more than epsilon
 	private int redundancyLevel;
 	//private int historySize;
 	private int epoch = 0;
@@ -23,26 +24,40 @@ public class Node {
 	// private boolean bufferFull;
 
 	private Cluster parent;
-	private int maxTry = NetworkConfiguration.getGlobalNetwork().maxTry1;
+	// epoch of the next transmission while the cluster steps its children by events
+	int nextEvent;
+	// trace lines of the epoch while the node runs as an actor, null while
+	// they go to the parent right away
+	private List<Runnable> trace;
+	private SimulationContext context;
+	private int maxTry;
 	
 	public Node(Cluster c, int id, double epsilon) {
 		this.id = id;
 		this.parent = c;
 		this.epsilon = epsilon;
-		redundancyLevel = NetworkConfiguration.getGlobalNetwork().nodeRedundancy;
-		failureGenerator = new SimpleFailureGenerator(NetworkConfiguration.getGlobalNetwork().failureRate1, id);
-		//historySize = NetworkConfiguration.getGlobalNetwork().nodeHistorySize;
+		context = c.getContext();
+		Network net = context.getNetwork();
+		maxTry = net.maxTry1;
+		redundancyLevel = net.nodeRedundancy;
+		failureGenerator = context.createFailureGenerator(net.failureRate1,
+				SimulationContext.NODE_TIER, c.getIndex(), id);
+		//historySize = net.nodeHistorySize;
 		history = new LinkedList<NodeMessage>();
 	}
 	
 	public double getData(int time) {
-		return NetworkConfiguration.getGlobalDataProvider().getData(this, time);
+		return context.getDataProvider().getData(this, time);
 	}
 
 	public int getGlobalID () {
 		return parent.nodeGlobalIDs[id];
 	}
 	
+	public int getId() {
+		return id;
+	}
+
 	public double getEpsilon() {
 		return epsilon;
 	}
@@ -51,6 +66,78 @@ public class Node {
 		this.epsilon = epsilon;
 	}
 
+	public NodePredictor getPredictor() {
+		return predictor;
+	}
+
+	/**
+	 * Sets the suppression predictor; the cluster head must mirror it.
+	 */
+	public void setPredictor(NodePredictor predictor) {
+		this.predictor = predictor;
+	}
+
+	/**
+	 * @return number of transmission attempts, excluding retries
+	 */
+	public int getSendCount() {
+		return seq;
+	}
+
+	/**
+	 * @return the first epoch from the current one at which the reading
+	 *         leaves the prediction by more than epsilon, or end if there is
+	 *         none before end. Valid until the next transmission, as nothing
+	 *         else changes the prediction.
+	 */
+	int nextTransmission(int end) {
+		if (history.size() == 0) {
+			return 0;
+		}
+		for (int t = epoch; t < end; t++) {
+			if (Math.abs(getData(t) - predictor.predict(t)) > epsilon) {
+				return t;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Moves to the given epoch without stepping the epochs in between, which
+	 * must all be suppressed.
+	 */
+	void skipTo(int epoch) {
+		this.epoch = epoch;
+	}
+
+	private void trace(String line) {
+		if (trace != null) {
+			trace.add(() -> parent.trace(log, line));
+		} else {
+			parent.trace(log, line);
+		}
+	}
+
+	/**
+	 * Keeps the trace lines until {@link #flushTrace()}, so that nodes
+	 * running concurrently can be traced in a fixed order.
+	 */
+	void setBufferedTrace(boolean buffered) {
+		trace = buffered ? new ArrayList<Runnable>() : null;
+	}
+
+	/**
+	 * Passes the kept trace lines on to the parent.
+	 */
+	void flushTrace() {
+		if (trace != null) {
+			for (Runnable line : trace) {
+				line.run();
+			}
+			trace.clear();
+		}
+	}
+
 /*	public int getRedundancyLevel() {
 		return redundancyLevel;
 	}
@@ -62,7 +149,7 @@ public class Node {
 	public NodeMessage send() {
 		// first time: always send 
 		if (history.size() == 0) {
-			state = getData(0);
+			predictor.update(0, getData(0));
 			epoch = 1;
 			NodeMessage msg = new NodeMessage();
 			msg.protocol = NodeMessage.Protocol.TS;
@@ -73,16 +160,16 @@ public class Node {
 			msg.seq = seq++;
 			history.add(msg);
             msg.history = history;
-			log.info(String.format("T %d N %d success, transmitting %f, tried 1 times", (epoch-1), id, msg.value));
+			trace(String.format("T %d N %d success, transmitting %f, tried 1 times", (epoch-1), id, msg.value));
 			return msg;
 		}
 		
 		NodeMessage msg = null;
 		// bound violated, send
 		double curData = getData(epoch);
-		if (Math.abs(curData - state) > epsilon) {
+		if (Math.abs(curData - predictor.predict(epoch)) > epsilon) {
 			msg = new NodeMessage();
-			state = curData;
+			predictor.update(epoch, curData);
 			msg.protocol = NodeMessage.Protocol.TS;
 			msg.from = id;
 			msg.epoch = epoch;
@@ -101,32 +188,32 @@ public class Node {
 		int count = 0;
 		
 		if (msg == null)
-			log.info(String.format("T %d N %d suppression", (epoch-1), id));
+			trace(String.format("T %d N %d suppression", (epoch-1), id));
 		else {
 			if (maxTry == -1) {
-				failed = failureGenerator.isFailure();
+				failed = failureGenerator.isFailure(epoch - 1, count);
 				count = 1;
 			}
 			else if (maxTry == 0) {
 				while (failed) {
-					failed = failureGenerator.isFailure();
+					failed = failureGenerator.isFailure(epoch - 1, count);
 					count++;					
 				}
 			}
 			else {
 				while (count < maxTry && failed) {
-					failed = failureGenerator.isFailure();
+					failed = failureGenerator.isFailure(epoch - 1, count);
 					count++;
 				}
 			}
 			
 			if (failed) {
-				log.info(String.format("T %d N %d failure, tried %d times", (epoch-1), id, count));
+				trace(String.format("T %d N %d failure, tried %d times", (epoch-1), id, count));
 				msg = null;
 			}
 			else {
 				msg.tryCount = count;
-				log.info(String.format("T %d N %d success, transmitting %f, tried %d times", (epoch-1), id, msg.value, count));
+				trace(String.format("T %d N %d success, transmitting %f, tried %d times", (epoch-1), id, msg.value, count));
 			}
 		}
 		return msg;
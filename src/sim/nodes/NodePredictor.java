@@ -0,0 +1,161 @@
+package sim.nodes;
+
+/**
+ * Per-node predictor for value suppression between a node and its cluster
+ * head.
+ * <p>
+ * A node only transmits when its reading is more than epsilon1 away from what
+ * the predictor expects; the head keeps a mirror of the predictor, fed with
+ * the same transmitted values, and uses its prediction in place of the
+ * suppressed reading. As long as the two see the same transmissions the head
+ * thus knows every reading to within epsilon1, exactly as with the plain
+ * "last transmitted value" test, which is the constant predictor.
+ * <p>
+ * Transmissions lost on the way are recovered by the head from the node's
+ * redundancy history, see {@link Cluster#receive}.
+ */
+public abstract class NodePredictor {
+
+    /** epoch of the last transmitted value, -1 if none */
+    protected int lastEpoch = -1;
+    protected double lastValue;
+
+    /**
+     * Records a transmitted value. Epochs must be increasing.
+     */
+    public void update(int epoch, double value) {
+        lastEpoch = epoch;
+        lastValue = value;
+    }
+
+    /**
+     * @return epoch of the last transmitted value, -1 if none
+     */
+    public int getLastEpoch() {
+        return lastEpoch;
+    }
+
+    /**
+     * Predicts the reading at the given epoch, which is not before the last
+     * update.
+     */
+    public abstract double predict(int epoch);
+
+    /**
+     * @return a predictor in the same configuration without any updates
+     */
+    public abstract NodePredictor copy();
+
+    /**
+     * @return the predictor to log at the end of the run, or null for the
+     *         plain last value test
+     */
+    public String report() {
+        return toString();
+    }
+
+    /**
+     * Creates a predictor by name: constant, trend or ar1.
+     *
+     * @param mu
+     *            stationary mean of the node under the cluster model
+     * @param a
+     *            lag one autocorrelation of the node under the cluster model
+     */
+    public static NodePredictor create(String name, double mu, double a) {
+        if (name.equals("constant")) {
+            return new Constant();
+        } else if (name.equals("trend")) {
+            return new Trend();
+        } else if (name.equals("ar1")) {
+            return new AR1(mu, a);
+        }
+        throw new IllegalArgumentException("unknown node predictor " + name);
+    }
+
+    /**
+     * The last transmitted value.
+     */
+    public static class Constant extends NodePredictor {
+
+        public double predict(int epoch) {
+            return lastValue;
+        }
+
+        public NodePredictor copy() {
+            return new Constant();
+        }
+
+        @Override
+        public String report() {
+            return null;
+        }
+
+        public String toString() {
+            return "constant";
+        }
+    }
+
+    /**
+     * Linear extrapolation through the last two transmitted values.
+     */
+    public static class Trend extends NodePredictor {
+
+        private int previousEpoch = -1;
+        private double previousValue;
+
+        public void update(int epoch, double value) {
+            previousEpoch = lastEpoch;
+            previousValue = lastValue;
+            super.update(epoch, value);
+        }
+
+        public double predict(int epoch) {
+            if (previousEpoch == -1) {
+                return lastValue;
+            }
+            double slope = (lastValue - previousValue) / (lastEpoch - previousEpoch);
+            return lastValue + slope * (epoch - lastEpoch);
+        }
+
+        public NodePredictor copy() {
+            return new Trend();
+        }
+
+        public String toString() {
+            return "trend";
+        }
+    }
+
+    /**
+     * mu + a^k (x - mu), k epochs after the last transmitted value x: the
+     * node's own AR(1) approximation with mean mu and autocorrelation a. The
+     * node does not see its neighbours, so the cross terms of the cluster
+     * model cannot be used.
+     */
+    public static class AR1 extends NodePredictor {
+
+        private final double mu;
+        private final double a;
+
+        public AR1(double mu, double a) {
+            this.mu = mu;
+            this.a = a;
+        }
+
+        public double predict(int epoch) {
+            if (lastEpoch == -1) {
+                return lastValue;
+            }
+            return mu + Math.pow(a, epoch - lastEpoch) * (lastValue - mu);
+        }
+
+        public NodePredictor copy() {
+            return new AR1(mu, a);
+        }
+
+        public String toString() {
+            return String.format("ar1 mu %f a %f", mu, a);
+        }
+    }
+}
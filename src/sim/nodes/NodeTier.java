@@ -0,0 +1,199 @@
+package sim.nodes;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The children of a cluster as arrays instead of {@link Node} objects. The
+ * predictions, send counters and the epoch live in primitive arrays, the
+ * readings are fetched a block of epochs at a time in time-major order, and
+ * the suppression test of all children is one pass of
+ * {@link Kernels#unbounded} over the readings of the epoch. Messages, the
+ * redundancy history and the failure draws are only touched for the children
+ * that transmit.
+ * <p>
+ * The messages, failure draws and transmission traces are those of the
+ * {@link Node} objects; suppressed children are not traced.
+ */
+public class NodeTier {
+	private static Logger log = Logger.getLogger(Node.class);
+
+	/** epochs of readings fetched at once */
+	private static final int BLOCK = 64;
+
+	private final Cluster parent;
+	private final DataProvider data;
+	private final Kernels kernels;
+	private final int nodeCount;
+	private final double epsilon;
+	private final int maxTry;
+	private final int redundancyLevel;
+
+	private int epoch = 0;
+	// readings of epochs blockStart to blockStart + BLOCK - 1, [epoch][node]
+	private final double[][] block;
+	private int blockStart = -BLOCK;
+	// prediction of each child for the current epoch
+	private final double[] prediction;
+	// predictors of the children, null for the constant one, which is the
+	// last transmitted value kept in prediction
+	private final NodePredictor[] predictors;
+	private final int[] seq;
+	private final int[] violated;
+	private final FailureGenerator[] failureGenerators;
+	private final List<List<NodeMessage>> histories;
+
+	/**
+	 * @param nodes
+	 *            the children, for their predictors
+	 */
+	public NodeTier(Cluster parent, Node[] nodes) {
+		this.parent = parent;
+		SimulationContext context = parent.getContext();
+		Network net = context.getNetwork();
+		data = context.getDataProvider();
+		kernels = context.getKernels();
+		nodeCount = nodes.length;
+		epsilon = parent.epsilon1;
+		maxTry = net.maxTry1;
+		redundancyLevel = net.nodeRedundancy;
+
+		block = new double[BLOCK][nodeCount];
+		prediction = new double[nodeCount];
+		seq = new int[nodeCount];
+		violated = new int[nodeCount];
+		failureGenerators = new FailureGenerator[nodeCount];
+		histories = new ArrayList<List<NodeMessage>>(nodeCount);
+		boolean constant = true;
+		for (int i = 0; i < nodeCount; i++) {
+			failureGenerators[i] = context.createFailureGenerator(net.failureRate1,
+					SimulationContext.NODE_TIER, parent.getIndex(), i);
+			histories.add(new LinkedList<NodeMessage>());
+			constant &= nodes[i].getPredictor() instanceof NodePredictor.Constant;
+		}
+		if (constant) {
+			predictors = null;
+		} else {
+			predictors = new NodePredictor[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				predictors[i] = nodes[i].getPredictor();
+			}
+		}
+	}
+
+	/**
+	 * Steps all children by one epoch, see {@link Node#send()}.
+	 *
+	 * @return the message of each child, null for the suppressed and failed
+	 *         ones
+	 */
+	public NodeMessage[] send() {
+		NodeMessage[] msgs = new NodeMessage[nodeCount];
+		double[] row = row(epoch);
+		// first time: always send
+		if (epoch == 0) {
+			for (int i = 0; i < nodeCount; i++) {
+				NodeMessage msg = transmit(i, row[i]);
+				msg.tryCount = 1;
+				msgs[i] = msg;
+				parent.trace(log, String.format("T %d N %d success, transmitting %f, tried 1 times", epoch, i, msg.value));
+			}
+			epoch++;
+			return msgs;
+		}
+
+		if (predictors != null) {
+			for (int i = 0; i < nodeCount; i++) {
+				prediction[i] = predictors[i].predict(epoch);
+			}
+		}
+		int count = kernels.unbounded(row, prediction, nodeCount, epsilon, violated);
+		for (int k = 0; k < count; k++) {
+			int i = violated[k];
+			NodeMessage msg = transmit(i, row[i]);
+
+			// manually inject failure
+			FailureGenerator failureGenerator = failureGenerators[i];
+			boolean failed = true;
+			int tries = 0;
+			if (maxTry == -1) {
+				failed = failureGenerator.isFailure(epoch, tries);
+				tries = 1;
+			}
+			else if (maxTry == 0) {
+				while (failed) {
+					failed = failureGenerator.isFailure(epoch, tries);
+					tries++;
+				}
+			}
+			else {
+				while (tries < maxTry && failed) {
+					failed = failureGenerator.isFailure(epoch, tries);
+					tries++;
+				}
+			}
+
+			if (failed) {
+				parent.trace(log, String.format("T %d N %d failure, tried %d times", epoch, i, tries));
+			}
+			else {
+				msg.tryCount = tries;
+				msgs[i] = msg;
+				parent.trace(log, String.format("T %d N %d success, transmitting %f, tried %d times", epoch, i, msg.value, tries));
+			}
+		}
+		epoch++;
+		return msgs;
+	}
+
+	/**
+	 * @return number of transmission attempts of the children, excluding
+	 *         retries
+	 */
+	public int getSendCount() {
+		int n = 0;
+		for (int s : seq) {
+			n += s;
+		}
+		return n;
+	}
+
+	/**
+	 * Builds the message of child i and records it in its predictor and
+	 * redundancy history.
+	 */
+	private NodeMessage transmit(int i, double value) {
+		if (predictors != null) {
+			predictors[i].update(epoch, value);
+		} else {
+			prediction[i] = value;
+		}
+		NodeMessage msg = new NodeMessage();
+		msg.protocol = NodeMessage.Protocol.TS;
+		msg.from = i;
+		msg.epoch = epoch;
+		msg.value = value;
+		msg.seq = seq[i]++;
+		List<NodeMessage> history = histories.get(i);
+		if (history.size() > redundancyLevel) {
+			history.remove(0); // evict earliest one
+		}
+		history.add(msg);
+		msg.history = history;
+		return msg;
+	}
+
+	/**
+	 * @return the readings of all children at time t
+	 */
+	private double[] row(int t) {
+		if (t >= blockStart + BLOCK) {
+			blockStart = t;
+			data.getBlock(parent.nodeGlobalIDs, t, Math.min(BLOCK, data.getTimeSteps() - t), block);
+		}
+		return block[t - blockStart];
+	}
+}
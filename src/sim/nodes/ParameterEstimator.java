@@ -0,0 +1,390 @@
+package sim.nodes;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.log4j.Logger;
+
+import Jama.Matrix;
+
+/**
+ * Streaming fit of the cluster model x(t) = c + a_1 x(t-1) + ... + a_p x(t-p)
+ * + e, e ~ N(0, sigma), with a = [a_1 ... a_p] of size m x pm. Order 1 is the
+ * model of {@link MVNModel}, higher orders that of {@link VARModel}.
+ * <p>
+ * All m equations share the regressor z = [1, x(t-1), ..., x(t-p)], so
+ * recursive least squares keeps a single (pm+1) x (pm+1) inverse Gram matrix
+ * P and updates it, the coefficients and the residual sum of squares in
+ * O((pm)^2) per sample. The
+ * residual sum of squares is exact: each sample adds e e' * lambda / (lambda +
+ * z' P z) with e the residual before the update. With lambda < 1 old samples
+ * are forgotten exponentially.
+ * <p>
+ * The fit is started from P = delta * I, i.e. a small ridge penalty of 1 /
+ * delta on c and a.
+ */
+public class ParameterEstimator {
+    private static Logger logger = Logger.getLogger(ParameterEstimator.class);
+
+    private static final double DELTA = 1e6;
+
+    private final int m;
+    /** order of the model */
+    private final int order;
+    /** forgetting factor */
+    private final double lambda;
+
+    /** inverse Gram matrix of the regressors, row-major (pm+1) x (pm+1) */
+    private final double[] p;
+    /** row i holds [c(i), a(i, :)], row-major m x (pm+1) */
+    private final double[] theta;
+    /** residual sum of squares, row-major m x m */
+    private final double[] rss;
+    /** (weighted) number of samples in the fit */
+    private double weight = 0;
+    private long samples = 0;
+
+    /** the last p samples, the latest first */
+    private final double[] lags;
+    /** number of samples seen */
+    private long seen = 0;
+
+    // scratch
+    private final double[] z;
+    private final double[] pz;
+    private final double[] e;
+
+    public ParameterEstimator(int m) {
+        this(m, 1, 1);
+    }
+
+    /**
+     * @param m
+     *            number of nodes
+     * @param order
+     *            number of past epochs in the model
+     * @param lambda
+     *            forgetting factor in (0, 1], 1 weighs all samples equally
+     */
+    public ParameterEstimator(int m, int order, double lambda) {
+        if (m <= 0 || order <= 0 || !(lambda > 0 && lambda <= 1)) {
+            throw new IllegalArgumentException(
+                    "m and order must be positive and lambda in (0, 1]");
+        }
+        this.m = m;
+        this.order = order;
+        this.lambda = lambda;
+        int n = order * m + 1;
+        p = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            p[i * n + i] = DELTA;
+        }
+        theta = new double[m * n];
+        rss = new double[m * m];
+        z = new double[n];
+        pz = new double[n];
+        e = new double[m];
+        lags = new double[order * m];
+    }
+
+    /**
+     * Adds the readings of the next epoch.
+     */
+    public void add(double[] x) {
+        if (seen++ < order) {
+            System.arraycopy(lags, 0, lags, m, (order - 1) * m);
+            System.arraycopy(x, 0, lags, 0, m);
+            return;
+        }
+        final int n = order * m + 1;
+        z[0] = 1;
+        System.arraycopy(lags, 0, z, 1, order * m);
+
+        // P z and the residuals before the update
+        double denom = lambda;
+        for (int i = 0; i < n; i++) {
+            double v = 0;
+            for (int j = 0; j < n; j++) {
+                v += p[i * n + j] * z[j];
+            }
+            pz[i] = v;
+            denom += z[i] * v;
+        }
+        for (int i = 0; i < m; i++) {
+            double v = x[i];
+            for (int j = 0; j < n; j++) {
+                v -= theta[i * n + j] * z[j];
+            }
+            e[i] = v;
+        }
+
+        // theta += e k', k = P z / denom
+        for (int i = 0; i < m; i++) {
+            double s = e[i] / denom;
+            for (int j = 0; j < n; j++) {
+                theta[i * n + j] += s * pz[j];
+            }
+        }
+        // P = (P - P z z' P / denom) / lambda, kept symmetric
+        for (int i = 0; i < n; i++) {
+            double s = pz[i] / denom;
+            for (int j = i; j < n; j++) {
+                double v = (p[i * n + j] - s * pz[j]) / lambda;
+                p[i * n + j] = v;
+                p[j * n + i] = v;
+            }
+        }
+        double g = lambda / denom;
+        for (int i = 0; i < m; i++) {
+            for (int j = i; j < m; j++) {
+                double v = lambda * rss[i * m + j] + g * e[i] * e[j];
+                rss[i * m + j] = v;
+                rss[j * m + i] = v;
+            }
+        }
+        weight = lambda * weight + 1;
+        samples++;
+        System.arraycopy(lags, 0, lags, m, (order - 1) * m);
+        System.arraycopy(x, 0, lags, 0, m);
+    }
+
+    /**
+     * @return number of transitions fitted so far
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return c as an m x 1 matrix
+     */
+    public Matrix getC() {
+        Matrix c = new Matrix(m, 1);
+        for (int i = 0; i < m; i++) {
+            c.set(i, 0, theta[i * (order * m + 1)]);
+        }
+        return c;
+    }
+
+    /**
+     * @return [a_1 ... a_p], m x pm
+     */
+    public Matrix getA() {
+        final int n = order * m + 1;
+        Matrix a = new Matrix(m, order * m);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < order * m; j++) {
+                a.set(i, j, theta[i * n + j + 1]);
+            }
+        }
+        return a;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @return residual covariance, with the pm + 1 fitted coefficients per
+     *         node taken off the degrees of freedom when there are enough
+     *         samples
+     */
+    public Matrix getSigma() {
+        final int n = order * m + 1;
+        double dof = weight > n ? weight - n : Math.max(weight, 1);
+        Matrix sigma = new Matrix(m, m);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                sigma.set(i, j, rss[i * m + j] / dof);
+            }
+        }
+        return sigma;
+    }
+
+    /**
+     * @return a model with the fitted parameters, an {@link MVNModel} for
+     *         order 1
+     */
+    public Model createModel(double epsilon) {
+        if (order == 1) {
+            return new MVNModel(epsilon, getC(), getA(), getSigma());
+        }
+        return new VARModel(epsilon, getC(), getA(), getSigma());
+    }
+
+    /**
+     * Writes the fitted parameters as a params element of a configuration
+     * file. Matrices are listed column by column, as NetworkConfiguration
+     * reads them.
+     */
+    public void writeParams(PrintStream out, String indent) {
+        out.println(indent + "<params>");
+        out.println(indent + "    <c>" + join(getC()) + "</c>");
+        out.println(indent + "    <a>" + join(getA()) + "</a>");
+        out.println(indent + "    <sigma>" + join(getSigma()) + "</sigma>");
+        out.print(indent + "</params>");
+    }
+
+    private static String join(Matrix x) {
+        StringBuilder b = new StringBuilder();
+        for (double v : x.getColumnPackedCopy()) {
+            if (b.length() > 0) {
+                b.append(',');
+            }
+            b.append(v);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Fits the parameters of every cluster of a configuration file in one
+     * pass over its data file.
+     *
+     * @param order
+     *            order of the model, 0 for the order of the configuration
+     * @param steps
+     *            number of epochs to use, 0 for all
+     * @return one estimator per cluster, in configuration order
+     */
+    public static ParameterEstimator[] fit(String configFile, int order, double lambda,
+            int steps) throws ConfigurationException {
+        HierarchicalConfiguration config = new XMLConfiguration(configFile);
+        int timeSteps = steps > 0 ? steps : config.getInt("timeSteps");
+        DataProvider data = new DataProvider(config.getInt("nodeCount"), timeSteps);
+        data.read(config.getString("dataFile"));
+        return fit(data, clusterNodes(config), order > 0 ? order : config.getInt("order", 1),
+                lambda, timeSteps);
+    }
+
+    /**
+     * Fits the parameters of the given clusters.
+     *
+     * @param nodes
+     *            global node ids of each cluster
+     */
+    public static ParameterEstimator[] fit(DataProvider data, int[][] nodes, int order,
+            double lambda, int steps) {
+        ParameterEstimator[] estimators = new ParameterEstimator[nodes.length];
+        for (int k = 0; k < nodes.length; k++) {
+            estimators[k] = new ParameterEstimator(nodes[k].length, order, lambda);
+        }
+        for (int t = 0; t < steps; t++) {
+            for (int k = 0; k < nodes.length; k++) {
+                estimators[k].add(data.getData(nodes[k], t));
+            }
+        }
+        for (int k = 0; k < nodes.length; k++) {
+            logger.info(String.format("C %d fitted %d samples, mean residual variance %f",
+                    k, estimators[k].getSamples(), estimators[k].getSigma().trace() / nodes[k].length));
+        }
+        return estimators;
+    }
+
+    static int[][] clusterNodes(HierarchicalConfiguration config) {
+        List<?> clusters = config.configurationsAt("clusters.cluster");
+        int[][] nodes = new int[clusters.size()][];
+        int k = 0;
+        for (Object obj : clusters) {
+            List<?> nodeList = ((HierarchicalConfiguration) obj).getList("nodes");
+            nodes[k] = new int[nodeList.size()];
+            for (int j = 0; j < nodes[k].length; j++) {
+                nodes[k][j] = Integer.parseInt(nodeList.get(j).toString());
+            }
+            k++;
+        }
+        return nodes;
+    }
+
+    /**
+     * Copies a configuration file, replacing the params element of the k-th
+     * cluster with the parameters of estimators[k]. A cluster without params
+     * gets them after its nodes element.
+     */
+    static void writeConfig(String configFile, String outFile, ParameterEstimator[] estimators)
+            throws IOException {
+        StringBuilder text = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(configFile));
+        try {
+            String s;
+            while ((s = reader.readLine()) != null) {
+                text.append(s).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+
+        Pattern cluster = Pattern.compile("(?s)([ \\t]*)<cluster>(.*?)</cluster>");
+        Pattern params = Pattern.compile("(?s)([ \\t]*)<params>.*?</params>");
+        Pattern nodes = Pattern.compile("(?s)([ \\t]*)<nodes>.*?</nodes>");
+        Matcher mc = cluster.matcher(text);
+        StringBuffer out = new StringBuffer();
+        int k = 0;
+        while (mc.find() && k < estimators.length) {
+            String body = mc.group(2);
+            Matcher mp = params.matcher(body);
+            Matcher mn = nodes.matcher(body);
+            if (mp.find()) {
+                body = body.substring(0, mp.start()) + format(estimators[k], mp.group(1))
+                        + body.substring(mp.end());
+            } else if (mn.find()) {
+                body = body.substring(0, mn.end()) + "\n" + format(estimators[k], mn.group(1))
+                        + body.substring(mn.end());
+            }
+            mc.appendReplacement(out, Matcher.quoteReplacement(mc.group(1) + "<cluster>" + body
+                    + "</cluster>"));
+            k++;
+        }
+        mc.appendTail(out);
+
+        FileWriter writer = new FileWriter(outFile);
+        try {
+            writer.write(out.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String format(ParameterEstimator estimator, String indent) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(b);
+        estimator.writeParams(out, indent);
+        out.flush();
+        return b.toString();
+    }
+
+    /**
+     * Fits the parameters of a configuration file.
+     * <p>
+     * Usage: ParameterEstimator config [output [lambda [steps [order]]]].
+     * Without an output file the params elements are printed.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println(
+                    "usage: ParameterEstimator config [output [lambda [steps [order]]]]");
+            return;
+        }
+        double lambda = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        int steps = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        int order = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        ParameterEstimator[] estimators = fit(args[0], order, lambda, steps);
+        if (args.length > 1) {
+            writeConfig(args[0], args[1], estimators);
+        } else {
+            for (ParameterEstimator estimator : estimators) {
+                estimator.writeParams(System.out, "");
+                System.out.println();
+            }
+        }
+    }
+}
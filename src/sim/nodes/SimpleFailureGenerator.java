@@ -17,8 +17,11 @@ public class SimpleFailureGenerator implements FailureGenerator {
 		rand.setSeed(seed*23+345219);
 	}
 
-	//@Override
-	public boolean isFailure() {
+	/**
+	 * Draws the next sample; the epoch and the attempt are not used.
+	 */
+	@Override
+	public boolean isFailure(int epoch, int attempt) {
 		
 		if (rand.nextDouble() < probability)
 			return true;
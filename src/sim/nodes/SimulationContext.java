@@ -0,0 +1,188 @@
+package sim.nodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.SplittableRandom;
+
+/**
+ * State of one simulation run: its network, the readings and the statistics.
+ * The base station, the clusters and the nodes of a network get everything
+ * through the context of that network, so independent runs can share a JVM.
+ * <p>
+ * The {@link ModelRegistry} and the log4j traces are still shared by all runs
+ * of a JVM.
+ */
+public class SimulationContext {
+
+    private final Network network;
+    private DataProvider dataProvider;
+    /** dense kernels of the models and of the suppression test of the nodes */
+    private Kernels kernels = Kernels.SCALAR;
+
+    /** values sent by the cluster heads */
+    private int sentCount = 0;
+    /** cluster head transmissions with at least one value */
+    private int txCount = 0;
+
+    private FailureSchedule schedule;
+    private boolean scheduleLoaded = false;
+
+    /** tiers of the failure streams */
+    public static final int NODE_TIER = 1, HEAD_TIER = 2;
+
+    public SimulationContext(Network network) {
+        this.network = network;
+    }
+
+    public Network getNetwork() {
+        return network;
+    }
+
+    public DataProvider getDataProvider() {
+        return dataProvider;
+    }
+
+    public void setDataProvider(DataProvider dataProvider) {
+        this.dataProvider = dataProvider;
+    }
+
+    public Kernels getKernels() {
+        return kernels;
+    }
+
+    public void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+    }
+
+    /**
+     * Creates the failure draws of a node or of a cluster head.
+     * <p>
+     * Without a replicate, see {@link Network#replicate}, they are seeded by
+     * the local id as they always were, so that nodes with the same id in
+     * different clusters fail together. With one, every (replicate, tier,
+     * cluster, node) has a SplittableRandom stream of its own, derived from
+     * {@link Network#seed} by the key alone, so that the draws do not depend
+     * on the order the streams are created in.
+     * <p>
+     * With a failure schedule, see {@link Network#failureSchedule}, the draws
+     * are looked up in the schedule of the run, which draws them from the
+     * stream of the link, of replicate 0 if none is given.
+     *
+     * @param tier
+     *            NODE_TIER or HEAD_TIER
+     * @param cluster
+     *            index of the cluster in the base station
+     * @param node
+     *            local id of the node, or of the head
+     */
+    public FailureGenerator createFailureGenerator(double probability, int tier, int cluster,
+            int node) {
+        if (!network.failureSchedule.equals("none")) {
+            FailureSchedule.Channel channel = network.failureSchedule.equals("gilbert")
+                    ? FailureSchedule.gilbert(probability, network.burstLength,
+                            network.lossGood, network.lossBad)
+                    : FailureSchedule.bernoulli(probability);
+            return getFailureSchedule().link(tier, cluster, node, channel,
+                    stream(tier, cluster, node));
+        }
+        if (network.replicate < 0) {
+            return new SimpleFailureGenerator(probability, node);
+        }
+        return new StreamFailureGenerator(probability, stream(tier, cluster, node));
+    }
+
+    private SplittableRandom stream(int tier, int cluster, int node) {
+        long key = network.seed;
+        for (long k : new long[] { Math.max(network.replicate, 0), tier, cluster, node }) {
+            key = new SplittableRandom(key + k).nextLong();
+        }
+        return new SplittableRandom(key);
+    }
+
+    /**
+     * @return the failure schedule of the run, read from
+     *         {@link Network#scheduleFile} if that exists
+     */
+    public synchronized FailureSchedule getFailureSchedule() {
+        if (schedule == null) {
+            String file = network.scheduleFile;
+            if (file != null && new File(file).exists()) {
+                try {
+                    schedule = FailureSchedule.load(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                scheduleLoaded = true;
+                if (schedule.getEpochs() < network.timeSteps) {
+                    throw new IllegalArgumentException(String.format(
+                            "failure schedule %s covers %d epochs of %d", file,
+                            schedule.getEpochs(), network.timeSteps));
+                }
+                checkAttempts(network, schedule.getAttempts(), "failure schedule " + file);
+            } else {
+                schedule = new FailureSchedule(network.timeSteps, network.scheduleAttempts);
+            }
+        }
+        return schedule;
+    }
+
+    /**
+     * Checks that a failure schedule of the given width covers every attempt
+     * of the run: maxTry1 and maxTry2 must be at most attempts, and not 0,
+     * which retries until the transmission succeeds.
+     *
+     * @param source
+     *            what the width comes from, for the message
+     */
+    static void checkAttempts(Network network, int attempts, String source) {
+        for (int maxTry : new int[] { network.maxTry1, network.maxTry2 }) {
+            if (maxTry == 0) {
+                throw new IllegalArgumentException(
+                        "a failure schedule cannot retry until success (maxTry 0)");
+            }
+            if (maxTry > attempts) {
+                throw new IllegalArgumentException(String.format(
+                        "maxTry %d exceeds the %d attempts of %s", maxTry, attempts, source));
+            }
+        }
+    }
+
+    /**
+     * Writes the failure schedule to {@link Network#scheduleFile}, unless it
+     * was read from there.
+     */
+    public synchronized void saveFailureSchedule() {
+        if (schedule != null && network.scheduleFile != null && !scheduleLoaded) {
+            try {
+                schedule.save(network.scheduleFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Records the values a cluster head sends in one epoch. Cluster heads may
+     * send concurrently, see {@link Network#epochThreads}.
+     */
+    public synchronized void countSent(int values) {
+        sentCount += values;
+        txCount += (values != 0 ? 1 : 0);
+    }
+
+    public synchronized int getSentCount() {
+        return sentCount;
+    }
+
+    public synchronized int getTxCount() {
+        return txCount;
+    }
+
+    /**
+     * @return fraction of all readings that were sent by the cluster heads
+     */
+    public double getSentRate() {
+        return ((double) getSentCount()) / (network.nodeCount * network.timeSteps);
+    }
+}
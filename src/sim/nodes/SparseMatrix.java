@@ -0,0 +1,226 @@
+package sim.nodes;
+
+import Jama.Matrix;
+
+/**
+ * Row-compressed copy of a model parameter such as a or sigma, which are
+ * mostly zero when only nearby nodes are coupled.
+ * <p>
+ * {@link #of} picks the storage format from the sparsity pattern:
+ * <ul>
+ * <li>DENSE if most entries are nonzero; every row is stored in full,</li>
+ * <li>BANDED if the nonzeros of each row lie in a short column range around
+ * the diagonal; the range is stored including the zeros inside it, so no
+ * column indices are needed,</li>
+ * <li>CSR otherwise; nonzeros with their column indices.</li>
+ * </ul>
+ * Products only skip entries that are exactly zero and keep the order of the
+ * others, so they agree bitwise with the dense loops they replace. Row updates
+ * go through {@link Kernels#axpy}.
+ */
+public class SparseMatrix {
+
+    public enum Format {
+        DENSE, BANDED, CSR
+    }
+
+    /** fraction of nonzeros above which a matrix is kept dense */
+    static final double DENSE_THRESHOLD = 0.5;
+
+    final int rows;
+    final int cols;
+    final Format format;
+    /** start of each row in val, and the end of the last row */
+    final int[] rowPtr;
+    /** column of each value; CSR only */
+    final int[] col;
+    /** column of the first stored value of each row; DENSE and BANDED */
+    final int[] first;
+    final double[] val;
+    private final int nonZeros;
+    private final int bandwidth;
+    private final Kernels kernels;
+
+    private SparseMatrix(int rows, int cols, Format format, int[] rowPtr, int[] col,
+            int[] first, double[] val, int nonZeros, int bandwidth, Kernels kernels) {
+        this.rows = rows;
+        this.cols = cols;
+        this.format = format;
+        this.rowPtr = rowPtr;
+        this.col = col;
+        this.first = first;
+        this.val = val;
+        this.nonZeros = nonZeros;
+        this.bandwidth = bandwidth;
+        this.kernels = kernels;
+    }
+
+    /**
+     * Compresses x into the format that suits its sparsity pattern best.
+     */
+    public static SparseMatrix of(Matrix x) {
+        return of(x, Kernels.SCALAR);
+    }
+
+    public static SparseMatrix of(Matrix x, Kernels kernels) {
+        int rows = x.getRowDimension();
+        int cols = x.getColumnDimension();
+        double[][] d = x.getArray();
+
+        int nonZeros = 0;
+        int bandwidth = 0;
+        int bandSize = 0;
+        int[] lo = new int[rows];
+        int[] hi = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            lo[i] = cols;
+            hi[i] = -1;
+            for (int j = 0; j < cols; j++) {
+                if (d[i][j] != 0) {
+                    nonZeros++;
+                    lo[i] = Math.min(lo[i], j);
+                    hi[i] = j;
+                    bandwidth = Math.max(bandwidth, Math.abs(i - j));
+                }
+            }
+            if (hi[i] < 0) {
+                lo[i] = 0;
+            }
+            bandSize += hi[i] - lo[i] + 1;
+        }
+
+        int[] rowPtr = new int[rows + 1];
+        if (nonZeros > DENSE_THRESHOLD * rows * cols || bandSize <= 2 * nonZeros) {
+            // contiguous rows
+            Format format = Format.BANDED;
+            if (nonZeros > DENSE_THRESHOLD * rows * cols) {
+                format = Format.DENSE;
+                for (int i = 0; i < rows; i++) {
+                    lo[i] = 0;
+                    hi[i] = cols - 1;
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                rowPtr[i + 1] = rowPtr[i] + hi[i] - lo[i] + 1;
+            }
+            double[] val = new double[rowPtr[rows]];
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(d[i], lo[i], val, rowPtr[i], rowPtr[i + 1] - rowPtr[i]);
+            }
+            return new SparseMatrix(rows, cols, format, rowPtr, null, lo, val, nonZeros,
+                    bandwidth, kernels);
+        }
+
+        int[] col = new int[nonZeros];
+        double[] val = new double[nonZeros];
+        int p = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (d[i][j] != 0) {
+                    col[p] = j;
+                    val[p++] = d[i][j];
+                }
+            }
+            rowPtr[i + 1] = p;
+        }
+        return new SparseMatrix(rows, cols, Format.CSR, rowPtr, col, null, val, nonZeros,
+                bandwidth, kernels);
+    }
+
+    /**
+     * Row times gathered rows: y(i, 0:n-1) = sum_k this(i, k) z(index[k], 0:n-1)
+     * for every row i.
+     *
+     * @param z
+     *            row-major, row stride zs
+     * @param index
+     *            row of z for each column of this matrix
+     * @param y
+     *            row-major, row stride ys; overwritten
+     */
+    public void timesRows(double[] z, int zs, int[] index, int n, double[] y, int ys) {
+        for (int i = 0; i < rows; i++) {
+            int yi = i * ys;
+            for (int j = 0; j < n; j++) {
+                y[yi + j] = 0;
+            }
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                double v = val[p];
+                if (v == 0) {
+                    continue;
+                }
+                kernels.axpy(v, z, index[column(i, p)] * zs, y, yi, n);
+            }
+        }
+    }
+
+    /**
+     * {@link #timesRows(double[], int, int[], int, double[], int)} with z in
+     * single precision; the products are summed in double.
+     */
+    public void timesRows(float[] z, int zs, int[] index, int n, double[] y, int ys) {
+        for (int i = 0; i < rows; i++) {
+            int yi = i * ys;
+            for (int j = 0; j < n; j++) {
+                y[yi + j] = 0;
+            }
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                double v = val[p];
+                if (v == 0) {
+                    continue;
+                }
+                int zk = index[column(i, p)] * zs;
+                for (int j = 0; j < n; j++) {
+                    y[yi + j] += v * z[zk + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Row i times a gathered vector: sum_k this(i, k) z[off + index[k]].
+     */
+    public double dotRow(int i, double[] z, int off, int[] index) {
+        double v = 0;
+        for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+            if (val[p] != 0) {
+                v += val[p] * z[off + index[column(i, p)]];
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Adds row i to y[off], ..., y[off + cols - 1].
+     */
+    public void addRow(int i, double[] y, int off) {
+        for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+            if (val[p] != 0) {
+                y[off + column(i, p)] += val[p];
+            }
+        }
+    }
+
+    private int column(int i, int p) {
+        return col == null ? first[i] + p - rowPtr[i] : col[p];
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getNonZeros() {
+        return nonZeros;
+    }
+
+    /** largest |i - j| of a nonzero entry */
+    public int getBandwidth() {
+        return bandwidth;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %dx%d nnz %d bandwidth %d", format, rows, cols, nonZeros,
+                bandwidth);
+    }
+}
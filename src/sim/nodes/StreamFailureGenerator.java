@@ -0,0 +1,27 @@
+package sim.nodes;
+
+import java.util.SplittableRandom;
+
+/**
+ * Failure samples drawn from a stream of its own, see
+ * {@link SimulationContext#createFailureGenerator}.
+ */
+public class StreamFailureGenerator implements FailureGenerator {
+
+	private double probability;
+	private SplittableRandom stream;
+
+	public StreamFailureGenerator(double probability, SplittableRandom stream) {
+		this.probability = probability;
+		this.stream = stream;
+	}
+
+	/**
+	 * Draws the next sample; the epoch and the attempt are not used.
+	 */
+	@Override
+	public boolean isFailure(int epoch, int attempt) {
+		return stream.nextDouble() < probability;
+	}
+
+}
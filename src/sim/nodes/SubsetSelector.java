@@ -5,4 +5,12 @@ import Jama.Matrix;
 public interface SubsetSelector {
     public int[] select(Matrix mean, Matrix cov, Matrix sentValues,
             Matrix currentValues, double e);
+
+    /**
+     * @return statistics of the selections to log at the end of the run, or
+     *         null if there are none
+     */
+    public default String report() {
+        return null;
+    }
 }
@@ -0,0 +1,401 @@
+package sim.nodes;
+
+import java.util.Arrays;
+
+import Jama.Matrix;
+
+/**
+ * Vector autoregressive model of order p, x(t) = c + a_1 x(t-1) + ... + a_p
+ * x(t-p) + w, w ~ N(0, sigma), with a = [a_1 ... a_p] of size m x pm. Order 1
+ * is the model of {@link MVNModel}.
+ * <p>
+ * The state is the distribution over the last p epochs of every node and over
+ * the last p sent values of every node, in 2pm fixed slots like in
+ * {@link MVNModel}; lagIndex and sendIndex translate to slots, and a value
+ * sent in one of the last p epochs shares the slot of its epoch. The step to
+ * the next epoch is the companion form step, but only its first block row a
+ * is multiplied: the identity blocks below it just move each epoch one lag
+ * back, which is a relabeling of slots. With L = a * cov(lags, :) the new
+ * epoch has covariance L(:, s) with every slot s that stays, and sigma + L(:,
+ * lags) * a' with itself. That is O(p m^2) per node for a dense a instead of
+ * the O((pm)^3) of a dense companion product, and zeros of a are skipped.
+ * <p>
+ * The last p sent values of each node condition the prediction, not only the
+ * last one: with an order above 1 a single value leaves the course of a node
+ * open. The subset selectors get the usual 2m view over the last sent values
+ * and the current epoch, conditioned on the older sent values beforehand.
+ * While a candidate is scored, its last sent value is left out of the
+ * evidence, as in {@link MVNModel}, although the model keeps it.
+ * <p>
+ * Before the first epoch the earlier lags are taken to be equal to the first
+ * epoch.
+ */
+public class VARModel implements Model {
+
+    /** number of nodes */
+    public int m;
+    /** order */
+    final int p;
+
+    public Matrix c;
+    public Matrix a;
+    public Matrix sigma;
+    double epsilon;
+
+    /**
+     * mean and cov over 2pm fixed slots, row-major with a row stride of 2pm;
+     * see {@link MVNModel}
+     */
+    double[] mean, cov;
+    private int stride;
+    /** incremented whenever cov changes */
+    private int covVersion = 0;
+    /** a and sigma compressed by their sparsity, see {@link SparseMatrix} */
+    private SparseMatrix sa, ssigma;
+    private double[] fc;
+    // scratch
+    private double[] la;
+    private double[] lastMean;
+    private double[] row;
+    private double[] prediction;
+    private boolean[] used;
+    private int[] nextIndex;
+    private int[] live;
+    private int[] evidence;
+    private double[] evidenceValues;
+
+    /** slot of epoch t-l of node i at l * m + i, lag 0 is the current epoch */
+    int[] lagIndex;
+    /**
+     * slot and value of the q-th last sent value of node i at i * p + q;
+     * sendCount[i] of them are valid
+     */
+    int[] sendIndex;
+    private double[] sendValues;
+    private int[] sendCount;
+    /** slot of the last sent value of each node */
+    int[] sentIndex;
+    /** last sent value of each node */
+    private double[] sentValues;
+    int ts = 0;
+
+    /** epochs predicted, and the number of sent values they were conditioned on */
+    private long predictions = 0;
+    private long evidenceTotal = 0;
+
+    private final Kernels kernels;
+    private final CholeskyPredictor predictor;
+    private final ThreadLocal<MVNModel.MatrixPredictor> matrixPredictors;
+    private SubsetSelector subsetSelector;
+
+    /**
+     * @param a
+     *            [a_1 ... a_p], m x pm
+     */
+    public VARModel(double epsilon, Matrix c, Matrix a, Matrix sigma) {
+        this(epsilon, c, a, sigma, Kernels.SCALAR);
+    }
+
+    public VARModel(double epsilon, Matrix c, Matrix a, Matrix sigma, Kernels kernels) {
+        this.c = c;
+        this.a = a;
+        this.sigma = sigma;
+        m = c.getRowDimension();
+        if (a.getRowDimension() != m || a.getColumnDimension() % m != 0) {
+            throw new IllegalArgumentException("a must be m x pm");
+        }
+        p = a.getColumnDimension() / m;
+        this.epsilon = epsilon;
+        this.kernels = kernels;
+        predictor = new CholeskyPredictor(kernels);
+        matrixPredictors = ThreadLocal.withInitial(() -> new MVNModel.MatrixPredictor(kernels));
+        subsetSelector = new GreedySubsetSelector(this);
+    }
+
+    /**
+     * Allocates the model state for the first epoch: mean 0 and cov sigma,
+     * all nodes sent, the earlier lags equal to the first epoch.
+     */
+    private void initState() {
+        final int w = p * m;
+        stride = 2 * w;
+        mean = new double[stride];
+        cov = new double[stride * stride];
+        sa = SparseMatrix.of(a, kernels);
+        ssigma = SparseMatrix.of(sigma, kernels);
+        fc = c.getColumnPackedCopy();
+        la = new double[m * stride];
+        lastMean = new double[m];
+        row = new double[m];
+        prediction = new double[m];
+        used = new boolean[stride];
+        nextIndex = new int[m];
+        live = new int[stride];
+        evidence = new int[w];
+        evidenceValues = new double[w];
+
+        double[] fsigma = CholeskyPredictor.flatten(sigma, null);
+        for (int r = 0; r < w; r++) {
+            for (int q = 0; q < w; q++) {
+                cov[r * stride + q] = fsigma[(r % m) * m + q % m];
+            }
+        }
+        covVersion++;
+        lagIndex = new int[w];
+        Helper.reset(lagIndex, 0);
+        sendIndex = new int[w];
+        sendValues = new double[w];
+        sendCount = new int[m];
+        sentIndex = new int[m];
+        sentValues = new double[m];
+    }
+
+    /**
+     * Move forward one epoch. The new epoch is written to m slots that hold
+     * neither one of the p - 1 latest epochs nor a sent value.
+     */
+    public void forward() {
+        ts++;
+        final int n = stride;
+        final int w = p * m;
+
+        // L = a * cov(lags, :) and the new mean, before any slot is reused
+        sa.timesRows(cov, n, lagIndex, n, la, n);
+        for (int i = 0; i < m; i++) {
+            lastMean[i] = fc[i] + sa.dotRow(i, mean, 0, lagIndex);
+        }
+
+        // slots that stay: all lags but the oldest, and the sent values
+        Arrays.fill(used, false);
+        int nl = 0;
+        for (int r = 0; r < w - m; r++) {
+            used[lagIndex[r]] = true;
+            live[nl++] = lagIndex[r];
+        }
+        for (int i = 0; i < m; i++) {
+            for (int q = 0; q < sendCount[i]; q++) {
+                int s = sendIndex[i * p + q];
+                if (!used[s]) {
+                    used[s] = true;
+                    live[nl++] = s;
+                }
+            }
+        }
+        int[] next = nextIndex;
+        for (int r = 0, k = 0; k < m; r++) {
+            if (!used[r]) {
+                next[k++] = r;
+            }
+        }
+
+        for (int i = 0; i < m; i++) {
+            int ci = next[i] * n;
+            int li = i * n;
+            for (int q = 0; q < nl; q++) {
+                int s = live[q];
+                double v = la[li + s];
+                cov[ci + s] = v;
+                cov[s * n + next[i]] = v;
+            }
+            // current epoch: sigma + L(:, lags) * a', upper triangle mirrored;
+            // a single a_l may be far from contracting, and rounding
+            // asymmetries would grow with it
+            for (int l = i; l < m; l++) {
+                row[l] = sa.dotRow(l, la, li, lagIndex);
+            }
+            ssigma.addRow(i, row, 0);
+            for (int l = i; l < m; l++) {
+                cov[ci + next[l]] = row[l];
+                cov[next[l] * n + next[i]] = row[l];
+            }
+            mean[next[i]] = lastMean[i];
+        }
+
+        // every epoch moves one lag back
+        System.arraycopy(lagIndex, 0, lagIndex, m, w - m);
+        System.arraycopy(next, 0, lagIndex, 0, m);
+        covVersion++;
+    }
+
+    /**
+     * Collects the sent values that condition the predictions, node by node.
+     *
+     * @return number of entries in evidence and evidenceValues
+     */
+    private int collectEvidence() {
+        int count = 0;
+        for (int i = 0; i < m; i++) {
+            for (int q = 0; q < sendCount[i]; q++) {
+                evidence[count] = sendIndex[i * p + q];
+                evidenceValues[count++] = sendValues[i * p + q];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records that node j has sent value in the current epoch; its oldest
+     * sent value is dropped if it has p of them.
+     */
+    void accept(int j, double value) {
+        int o = j * p;
+        int n = Math.min(sendCount[j], p - 1);
+        System.arraycopy(sendIndex, o, sendIndex, o + 1, n);
+        System.arraycopy(sendValues, o, sendValues, o + 1, n);
+        sendIndex[o] = lagIndex[j];
+        sendValues[o] = value;
+        sendCount[j] = n + 1;
+        sentIndex[j] = lagIndex[j];
+        sentValues[j] = value;
+    }
+
+    /**
+     * @return mean and cov over the last sent values followed by the current
+     *         epoch, conditioned on the sent values that are not the last one
+     *         of their node; copies
+     */
+    private Matrix[] selectorView() {
+        int[] view = new int[2 * m];
+        System.arraycopy(sentIndex, 0, view, 0, m);
+        System.arraycopy(lagIndex, 0, view, m, m);
+        int k = 0;
+        int[] extra = new int[p * m];
+        double[] extraValues = new double[p * m];
+        for (int i = 0; i < m; i++) {
+            for (int q = 1; q < sendCount[i]; q++) {
+                extra[k] = sendIndex[i * p + q];
+                extraValues[k++] = sendValues[i * p + q];
+            }
+        }
+
+        Matrix mu = new Matrix(2 * m, 1);
+        Matrix x = new Matrix(2 * m, 2 * m);
+        for (int i = 0; i < 2 * m; i++) {
+            mu.set(i, 0, mean[view[i]]);
+            for (int j = 0; j < 2 * m; j++) {
+                x.set(i, j, cov[view[i] * stride + view[j]]);
+            }
+        }
+        if (k == 0) {
+            return new Matrix[] { mu, x };
+        }
+
+        // condition on the extra values: G = cov(view, extra) cov(extra, extra)^-1
+        Matrix kxx = new Matrix(k, k);
+        Matrix kvx = new Matrix(2 * m, k);
+        Matrix r = new Matrix(k, 1);
+        for (int q = 0; q < k; q++) {
+            for (int l = 0; l < k; l++) {
+                kxx.set(q, l, cov[extra[q] * stride + extra[l]]);
+            }
+            for (int i = 0; i < 2 * m; i++) {
+                kvx.set(i, q, cov[view[i] * stride + extra[q]]);
+            }
+            r.set(q, 0, extraValues[q] - mean[extra[q]]);
+        }
+        Matrix g = kxx.solve(kvx.transpose()).transpose();
+        mu.plusEquals(g.times(r));
+        x.minusEquals(g.times(kvx.transpose()));
+        return new Matrix[] { mu, x };
+    }
+
+    //@Override
+    public int[] send(double[] currentVal) {
+        // first time to send: always send out all values
+        if (sentValues == null) {
+            initState();
+            for (int j = 0; j < m; j++) {
+                accept(j, currentVal[j]);
+            }
+
+            return sentIndex.clone();
+        }
+
+        // move forward one epoch
+        forward();
+
+        // prediction and bound check
+        int count = collectEvidence();
+        predictor.bind(cov, stride, covVersion);
+        predictor.predict(mean, Arrays.copyOf(evidence, count), Arrays.copyOf(lagIndex, m),
+                Arrays.copyOf(evidenceValues, count), prediction);
+        predictions++;
+        evidenceTotal += count;
+        if (kernels.bounded(prediction, currentVal, m, epsilon)) {
+            return null;
+        }
+
+        Matrix[] view = selectorView();
+        int[] newSentIndex = subsetSelector.select(view[0], view[1],
+                new Matrix(sentValues, m), new Matrix(currentVal, m), epsilon);
+
+        // newly selected values take the slots of the current epoch
+        for (int j : newSentIndex) {
+            accept(j, currentVal[j]);
+        }
+        return newSentIndex;
+    }
+
+    /**
+     * Predicts other readings when sending a subset.
+     */
+    @Override
+    public Matrix predict(Matrix mean, Matrix cov, int[] sentIndex, int[] predictIndex,
+            Matrix sentValues) {
+        return matrixPredictors.get().predict(mean, cov, 0, sentIndex, predictIndex, sentValues,
+                false);
+    }
+
+    @Override
+    public void resetPrediction() {
+        matrixPredictors.get().cov = null;
+    }
+
+    @Override
+    public Kernels getKernels() {
+        return kernels;
+    }
+
+    /**
+     * @return the model in covariance form for the history reconstruction,
+     *         which only knows order 1
+     */
+    public MVNModel covarianceForm() {
+        if (p != 1) {
+            throw new UnsupportedOperationException(
+                    "constraints are only derived for models of order 1");
+        }
+        return new MVNModel(epsilon, c, a, sigma, kernels);
+    }
+
+    public int getOrder() {
+        return p;
+    }
+
+    public SubsetSelector getSubsetSelector() {
+        return subsetSelector;
+    }
+
+    public void setSubsetSelector(SubsetSelector subsetSelector) {
+        this.subsetSelector = subsetSelector;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    public String report() {
+        return "var " + this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("order %d mean evidence %.2f", p,
+                predictions == 0 ? 0 : (double) evidenceTotal / predictions);
+    }
+}